@@ -0,0 +1,100 @@
+import perf.EngineHarness;
+
+/**
+ * DefaultEngineHarness: Implements the benchmark harness on top of
+ * BeanCounterLogic and Bean. See perf.EngineHarness for why this class exists.
+ */
+public class DefaultEngineHarness implements EngineHarness {
+	private BeanCounterLogic logic;
+	private Bean[] beans;
+	private Bean bean;
+	private int[] filledSlots;
+	private SplitMixRandom rand;
+	private boolean luck;
+	private int slotCount;
+	private int skill;
+
+	@Override
+	public void init(int beanCount, int slotCount, boolean luck, long seed) {
+		this.rand = new SplitMixRandom(seed);
+		this.luck = luck;
+		this.slotCount = slotCount;
+		logic = new BeanCounterLogic(slotCount, rand);
+		beans = new Bean[beanCount];
+		for (int i = 0; i < beanCount; i++) {
+			beans[i] = new Bean(luck, rand, slotCount);
+		}
+		logic.reset(beans);
+		// Fill the rows so lookups and steps see a machine in full swing
+		for (int i = 0; i < slotCount; i++) {
+			logic.advanceStep();
+		}
+		bean = new Bean(luck, rand, slotCount);
+		skill = bean.right;
+	}
+
+	@Override
+	public boolean advanceStep() {
+		if (logic.advanceStep()) {
+			return true;
+		}
+		logic.reset(beans);
+		return false;
+	}
+
+	@Override
+	public int inFlightXPosSum() {
+		int sum = 0;
+		for (int y = 0; y < slotCount; y++) {
+			sum += logic.getInFlightBeanXPos(y);
+		}
+		return sum;
+	}
+
+	@Override
+	public void reset() {
+		logic.reset(beans);
+	}
+
+	@Override
+	public void repeat() {
+		logic.repeat();
+	}
+
+	@Override
+	public void upperHalf() {
+		logic.upperHalf();
+	}
+
+	@Override
+	public void lowerHalf() {
+		logic.lowerHalf();
+	}
+
+	@Override
+	public void fill() {
+		logic.reset(beans);
+		logic.runToCompletion();
+		filledSlots = logic.slots.clone();
+	}
+
+	@Override
+	public void restoreFilled() {
+		System.arraycopy(filledSlots, 0, logic.slots, 0, filledSlots.length);
+		// Only the statistics listen to the machine here
+		logic.getStatistics().machineRestored(logic.slots);
+	}
+
+	@Override
+	public Object createBean() {
+		return new Bean(luck, rand, slotCount);
+	}
+
+	@Override
+	public int fall() {
+		if (!luck && bean.right == 0) {
+			bean.right = skill;
+		}
+		return bean.fall();
+	}
+}
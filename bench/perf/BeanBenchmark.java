@@ -0,0 +1,52 @@
+package perf;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BeanBenchmark: Measures creating beans and letting a bean fall, in both luck
+ * and skill mode.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BeanBenchmark {
+	@Param({"10", "1000", "10000"})
+	public int slotCount;
+
+	@Param({"true", "false"})
+	public boolean luck;
+
+	private EngineHarness harness;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		harness = EngineHarness.create();
+		harness.init(0, slotCount, luck, 42);
+	}
+
+	@Benchmark
+	public Object construct() {
+		return harness.createBean();
+	}
+
+	@Benchmark
+	public int fall() {
+		return harness.fall();
+	}
+}
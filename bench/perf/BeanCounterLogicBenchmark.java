@@ -0,0 +1,152 @@
+package perf;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BeanCounterLogicBenchmark: Measures the throughput of the BeanCounterLogic
+ * operations the GUI and the text UI call, over a range of bean and slot
+ * counts. Run with the GC profiler (runBenchmarks passes -prof gc) to also see
+ * the allocation rate of each operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BeanCounterLogicBenchmark {
+
+	/**
+	 * A machine in the middle of an experiment, with every row in flight.
+	 */
+	@State(Scope.Thread)
+	public static class Running {
+		@Param({"1000", "100000", "10000000"})
+		public int beanCount;
+
+		@Param({"10", "1000", "10000"})
+		public int slotCount;
+
+		@Param({"true", "false"})
+		public boolean luck;
+
+		EngineHarness harness;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			harness = EngineHarness.create();
+			harness.init(beanCount, slotCount, luck, 42);
+		}
+	}
+
+	/**
+	 * A machine that has just finished, with all the beans in the slots. The
+	 * measured operations empty it, so before every invocation restoreFilled()
+	 * copies the slot counts of the finished machine back in, in O(slots) time.
+	 * JMH leaves the setup out of the timing. The machine is only run to
+	 * completion once, since doing that before every invocation would take far
+	 * longer than the invocation itself.
+	 */
+	@State(Scope.Thread)
+	public static class Finished {
+		@Param({"1000", "100000", "10000000"})
+		public int beanCount;
+
+		@Param({"10", "1000", "10000"})
+		public int slotCount;
+
+		@Param({"true", "false"})
+		public boolean luck;
+
+		EngineHarness harness;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			harness = EngineHarness.create();
+			harness.init(beanCount, slotCount, luck, 42);
+			harness.fill();
+		}
+
+		@Setup(Level.Invocation)
+		public void refill() {
+			harness.restoreFilled();
+		}
+	}
+
+	/**
+	 * A finished machine that is refilled before every iteration, for repeat(),
+	 * which moves all the beans out of the slots and cannot be undone cheaply.
+	 * repeat() takes time in proportion to the number of beans, so it is timed
+	 * one call per iteration.
+	 */
+	@State(Scope.Thread)
+	public static class Refilled {
+		@Param({"1000", "100000", "10000000"})
+		public int beanCount;
+
+		@Param({"10", "1000", "10000"})
+		public int slotCount;
+
+		@Param({"true", "false"})
+		public boolean luck;
+
+		EngineHarness harness;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			harness = EngineHarness.create();
+			harness.init(beanCount, slotCount, luck, 42);
+		}
+
+		@Setup(Level.Iteration)
+		public void fill() {
+			harness.fill();
+		}
+	}
+
+	@Benchmark
+	public boolean advanceStep(Running r) {
+		return r.harness.advanceStep();
+	}
+
+	@Benchmark
+	public int getInFlightBeanXPos(Running r) {
+		return r.harness.inFlightXPosSum();
+	}
+
+	@Benchmark
+	public void reset(Running r) {
+		r.harness.reset();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Warmup(iterations = 10)
+	@Measurement(iterations = 30)
+	public void repeat(Refilled r) {
+		r.harness.repeat();
+	}
+
+	@Benchmark
+	public void upperHalf(Finished f) {
+		f.harness.upperHalf();
+	}
+
+	@Benchmark
+	public void lowerHalf(Finished f) {
+		f.harness.lowerHalf();
+	}
+}
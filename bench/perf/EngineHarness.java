@@ -0,0 +1,87 @@
+package perf;
+
+/**
+ * EngineHarness: The benchmarks drive the engine through this interface. JMH
+ * does not accept benchmark classes in the default package, and code in a named
+ * package cannot refer to classes in the default package, where the engine
+ * lives. So the benchmarks stay in this package and DefaultEngineHarness, in
+ * the default package, implements this interface on top of the engine. The
+ * harness is loaded by name and is the only implementation, so the JIT inlines
+ * the calls.
+ */
+public interface EngineHarness {
+
+	/**
+	 * Loads the harness implementation from the default package.
+	 *
+	 * @return the harness
+	 */
+	static EngineHarness create() {
+		try {
+			return (EngineHarness) Class.forName("DefaultEngineHarness").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException re) {
+			throw new IllegalStateException("DefaultEngineHarness is not on the classpath", re);
+		}
+	}
+
+	/**
+	 * Creates a machine and its beans, all sharing a seeded generator.
+	 *
+	 * @param beanCount the number of beans
+	 * @param slotCount the number of slots in the machine
+	 * @param luck      whether the beans are in luck mode (or skill mode)
+	 * @param seed      the seed for the generator
+	 */
+	void init(int beanCount, int slotCount, boolean luck, long seed);
+
+	/**
+	 * Advances the machine one step, resetting it first if it has finished.
+	 *
+	 * @return whether the step changed anything
+	 */
+	boolean advanceStep();
+
+	/**
+	 * Looks up the in-flight bean in every row.
+	 *
+	 * @return the sum of the x-coordinates found, so the lookups are not dead code
+	 */
+	int inFlightXPosSum();
+
+	void reset();
+
+	void repeat();
+
+	void upperHalf();
+
+	void lowerHalf();
+
+	/**
+	 * Resets the machine and runs it to completion so that all beans are in the
+	 * slots, and keeps a copy of the slot counts for restoreFilled(). Used to
+	 * prepare for repeat(), upperHalf() and lowerHalf().
+	 */
+	void fill();
+
+	/**
+	 * Copies the slot counts kept by fill() back into the machine, in O(slots)
+	 * time. Only valid while no beans are waiting or in flight, as after
+	 * upperHalf() and lowerHalf().
+	 */
+	void restoreFilled();
+
+	/**
+	 * Creates a new bean of the configured mode for the configured machine.
+	 *
+	 * @return the bean
+	 */
+	Object createBean();
+
+	/**
+	 * Lets a single bean fall once. A skill bean gets its skill level back once it
+	 * has run out of right turns.
+	 *
+	 * @return 0 for left, 1 for right
+	 */
+	int fall();
+}
@@ -0,0 +1,3 @@
+mkdir bench-bin
+javac -d bench-bin -cp "CommandLineJunit/*;jpf-core/build/jpf-annotations.jar;jpf-core/build/jpf.jar;jmh-jars/*" -processorpath "jmh-jars/jmh-generator-annprocess-1.37.jar;jmh-jars/jmh-core-1.37.jar" src/*.java bench/*.java bench/perf/*.java
+java -cp "bench-bin;jmh-jars/*" org.openjdk.jmh.Main -prof gc %*
@@ -2,22 +2,25 @@ import java.util.Random;
 
 /**
  * Code by @author Wonsun Ahn
- * Bean: Each bean is assigned a skill level from 0-9 on creation according to
- * a normal distribution with average SKILL_AVERAGE and standard deviation
- * SKILL_STDEV. A skill level of 9 means it always makes the "right" choices
- * (pun intended) when the machine is operating in skill mode ("skill" passed on
- * command kine). That means the bean will always go right when a peg is
- * encountered, resulting it falling into slot 9. A skill evel of 0 means that
- * the bean will always go left, resulting it falling into slot 0. For the
- * in-between skill levels, the bean will first go right then left. For example,
- * for a skill level of 7, the bean will go right 7 times then go left twice.
- * Skill levels are irrelevant when the machine operates in luck mode. In that
- * case, the bean will have a 50/50 chance of going right or left, regardless of
- * skill level.
+ * Bean: Each bean is assigned a skill level from 0 to (slotCount - 1) on
+ * creation according to a normal distribution with the average and standard
+ * deviation of the binomial distribution over the (slotCount - 1) pegs. For
+ * the default 10 slots, that is skill levels 0-9 with average 4.5 and standard
+ * deviation 1.5. The highest skill level means it always makes the "right"
+ * choices (pun intended) when the machine is operating in skill mode ("skill"
+ * passed on command line). That means the bean will always go right when a peg
+ * is encountered, resulting it falling into the last slot. A skill level of 0
+ * means that the bean will always go left, resulting it falling into slot 0.
+ * For the in-between skill levels, the bean will first go right then left. For
+ * example, for a skill level of 7 on 10 slots, the bean will go right 7 times
+ * then go left twice. Skill levels are irrelevant when the machine operates in
+ * luck mode. In that case, the bean will have a 50/50 chance of going right or
+ * left, regardless of skill level.
  */
 public class Bean {
-	private static final double SKILL_AVERAGE = 4.5;	// MainPanel.SLOT_COUNT * 0.5;
-	private static final double SKILL_STDEV = 1.5;		// Math.sqrt(SLOT_COUNT * 0.5 * (1 - 0.5));
+	public static final int DEFAULT_SLOT_COUNT = 10;
+	// What getState() returns for a luck bean; skill beans return their right count
+	static final int LUCK_STATE = -1;
 	Random rand;
 	boolean isLuck;
 	int right = -1;
@@ -29,33 +32,81 @@ public class Bean {
 	 * @param rand      the random number generator
 	 */
 	Bean(boolean isLuck, Random rand) {
-        this.rand = rand;
-        this.isLuck = isLuck;
-        if (isLuck) {
-            return;
-        }
-        double ds = rand.nextGaussian() * SKILL_STDEV + SKILL_AVERAGE;
-        if (ds < 0.5) {
-            this.right = 0;
-        } else if (ds < 1.5) {
-            this.right = 1;
-        } else if (ds < 2.5) {
-            this.right = 2;
-        } else if (ds < 3.5) {
-            this.right = 3;
-        } else if (ds < 4.5) {
-            this.right = 4;
-        } else if (ds < 5.5) {
-            this.right = 5;
-        } else if (ds < 6.5) {
-            this.right = 6;
-        } else if (ds < 7.5) {
-            this.right = 7;
-        } else if (ds < 8.5) {
-            this.right = 8;
-        } else {
-            this.right = 9;
-        }
+		this(isLuck, rand, DEFAULT_SLOT_COUNT);
+	}
+
+	/**
+	 * Constructor - creates a bean in either luck mode or skill mode for a machine
+	 * with the given number of slots.
+	 * 
+	 * @param isLuck	whether the bean is in luck mode
+	 * @param rand      the random number generator
+	 * @param slotCount the number of slots in the machine
+	 */
+	Bean(boolean isLuck, Random rand, int slotCount) {
+		this.rand = rand;
+		this.isLuck = isLuck;
+		this.right = randomState(isLuck, rand, slotCount);
+	}
+
+	/**
+	 * Draws the state of a new bean the way the constructor does, without
+	 * creating the bean. Used to fill a PackedBeanPool.
+	 * 
+	 * @param isLuck	whether the bean is in luck mode
+	 * @param rand      the random number generator
+	 * @param slotCount the number of slots in the machine
+	 * @return the state of the bean, as returned by getState()
+	 */
+	static int randomState(boolean isLuck, Random rand, int slotCount) {
+		if (isLuck) {
+			return LUCK_STATE;
+		}
+		int rows = slotCount - 1;
+		double skillAverage = rows * 0.5;
+		double skillStdev = Math.sqrt(rows * 0.5 * (1 - 0.5));
+		double ds = rand.nextGaussian() * skillStdev + skillAverage;
+		// Round to the nearest skill level, clamping to the slots at both ends
+		return (int) Math.max(0, Math.min(rows, Math.floor(ds + 0.5)));
+	}
+
+	/**
+	 * Re-creates a bean with a known skill level. Used when beans are scooped out
+	 * of the slots, where only the slot counts are kept around.
+	 * 
+	 * @param isLuck	whether the bean is in luck mode
+	 * @param rand      the random number generator
+	 * @param right		the skill level of the bean (ignored in luck mode)
+	 * @return the bean
+	 */
+	static Bean withSkill(boolean isLuck, Random rand, int right) {
+		Bean b = new Bean(true, rand);
+		b.isLuck = isLuck;
+		if (!isLuck) {
+			b.right = right;
+		}
+		return b;
+	}
+
+	/**
+	 * Returns the state of the bean packed into an int: LUCK_STATE for a luck
+	 * bean, or the number of times it has left to fall right for a skill bean.
+	 * 
+	 * @return the state
+	 */
+	int getState() {
+		return isLuck ? LUCK_STATE : right;
+	}
+
+	/**
+	 * Re-creates a bean from the state returned by getState().
+	 * 
+	 * @param state the state of the bean
+	 * @param rand  the random number generator
+	 * @return the bean
+	 */
+	static Bean fromState(int state, Random rand) {
+		return withSkill(state == LUCK_STATE, rand, state);
 	}
 
 	/**
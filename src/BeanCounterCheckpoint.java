@@ -0,0 +1,358 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BeanCounterCheckpoint: Saves the full state of a BeanCounterLogic to a
+ * compact binary file and restores it, so a long experiment can be stopped and
+ * carried on later, or picked up again after a crash.
+ *
+ * <p>The file holds a header, the slot counts, the in-flight beans row by row,
+ * and the state of every waiting bean (see Bean.getState()) packed as in a
+ * PackedBeanPool, behind a FileChannel. Waiting beans kept in a pool are copied
+ * straight from its segments, and a large number of them is restored into a
+ * memory-mapped pool next to the checkpoint. A checkpoint is written to a
+ * temporary file next to the target and then moved over it, so a crash halfway
+ * through a checkpoint leaves the previous one intact.</p>
+ *
+ * <p>Only the copy of the slots and the rows holds up the thread that drives the
+ * machine. The waiting beans are streamed to the file afterwards, a chunk at a
+ * time, so checkpointPeriodically() can run alongside runToCompletion() or a
+ * stepping loop.</p>
+ */
+public class BeanCounterCheckpoint {
+	private static final int MAGIC = 0x42434350;		// "BCCP"
+	private static final int VERSION = 4;
+	private static final int BUFFER_SIZE = 1 << 20;
+	// Larger numbers of waiting beans are restored into a mapped PackedBeanPool
+	private static final int MAX_UNPOOLED_BEANS = 1 << 20;
+
+	/**
+	 * MachineState: Everything needed to carry on with an experiment, as captured
+	 * by BeanCounterLogic.captureState().
+	 */
+	static class MachineState {
+		boolean isLuck;				// Mode used to re-create beans on repeat()
+		boolean hasRandState;		// Whether randState holds a SplitMixRandom state
+		long randState;
+		long randGamma;
+		boolean hasGaussian;		// Whether the generator had a Gaussian cached
+		double gaussian;
+		int[] slots;				// Number of beans in each slot
+		int[] inFlightX;			// X-coordinate of the bean in each row, or NO_BEAN_IN_YPOS
+		int[] inFlightState;		// State of the bean in each row
+		int waitingCount;			// Number of waiting beans
+		// Read from a checkpoint: the waiting beans, front of the queue first
+		int[] waiting = new int[0];	// State of each waiting bean
+		PackedBeanPool pooled;		// Waiting beans after those in waiting, or null
+		// Captured from a machine: where its waiting beans were at the time
+		long waitingFront;			// Number of beans the machine had taken before
+		long waitingCopied;			// Position of the next bean to copy
+		private int[] taken = new int[16];	// Beans the machine took before they were copied
+		private int takenStart;
+		private int takenCount;
+
+		/**
+		 * Keeps the state of a bean the machine takes from the front of its waiting
+		 * beans, if it was waiting at the capture and has not been copied yet.
+		 *
+		 * @param position the number of beans the machine had taken before this one
+		 * @param state    the state of the bean
+		 */
+		void keepTaken(long position, int state) {
+			if (position < waitingCopied || position >= waitingFront + waitingCount) {
+				return;
+			}
+			if (takenStart + takenCount == taken.length) {
+				if (takenStart > taken.length / 2) {
+					System.arraycopy(taken, takenStart, taken, 0, takenCount);
+				} else {
+					taken = Arrays.copyOf(taken, taken.length * 2);
+					System.arraycopy(taken, takenStart, taken, 0, takenCount);
+				}
+				takenStart = 0;
+			}
+			taken[takenStart + takenCount] = state;
+			takenCount++;
+		}
+
+		boolean hasTaken() {
+			return takenCount > 0;
+		}
+
+		/**
+		 * Removes the oldest bean kept by keepTaken().
+		 *
+		 * @return the state of the bean
+		 */
+		int nextTaken() {
+			int state = taken[takenStart];
+			takenStart++;
+			takenCount--;
+			if (takenCount == 0) {
+				takenStart = 0;
+			}
+			return state;
+		}
+	}
+
+	/**
+	 * Saves a checkpoint of the machine.
+	 *
+	 * @param logic the machine
+	 * @param path  the file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void save(BeanCounterLogic logic, Path path) throws IOException {
+		MachineState state = logic.captureState();
+		try {
+			write(logic, state, path);
+		} finally {
+			logic.endCapture(state);
+		}
+	}
+
+	/**
+	 * Reads a checkpoint and creates a machine from it. The machine gets the
+	 * number of slots of the checkpoint, and the given generator carries on from
+	 * the saved generator state.
+	 *
+	 * <p>More than a million waiting beans are restored into a mapped
+	 * PackedBeanPool with a new scratch file next to the checkpoint, so they
+	 * take neither heap nor direct memory. The machine owns that pool: it closes
+	 * it, deleting the file, when it is next reset or restored, so reset the
+	 * machine once done with it. Should the JVM exit first, the file is still
+	 * deleted on the way out.</p>
+	 *
+	 * @param path the file to read
+	 * @param rand the generator for the machine and its beans
+	 * @return the restored machine
+	 * @throws IOException if the file cannot be read or is not a checkpoint
+	 */
+	public static BeanCounterLogic restore(Path path, SplitMixRandom rand) throws IOException {
+		MachineState state = read(path);
+		try {
+			BeanCounterLogic logic = new BeanCounterLogic(state.slots.length, rand);
+			logic.restoreState(state);
+			return logic;
+		} catch (RuntimeException e) {
+			if (state.pooled != null) {
+				state.pooled.close();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Saves a checkpoint of the machine every period on a background thread,
+	 * until the returned executor is shut down. A failed checkpoint is reported
+	 * on System.err and the next one is tried as usual, whatever went wrong, since
+	 * anything thrown out of the task would silently cancel all later ones.
+	 *
+	 * @param logic  the machine
+	 * @param path   the file to write
+	 * @param period the time between checkpoints
+	 * @param unit   the unit of period
+	 * @return the executor running the checkpoints
+	 */
+	public static ScheduledExecutorService checkpointPeriodically(BeanCounterLogic logic, Path path,
+			long period, TimeUnit unit) {
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "BeanCounterCheckpoint");
+			t.setDaemon(true);
+			return t;
+		});
+		executor.scheduleWithFixedDelay(() -> {
+			try {
+				save(logic, path);
+			} catch (Throwable t) {
+				System.err.println("Checkpoint to " + path + " failed: " + t);
+			}
+		}, period, period, unit);
+		return executor;
+	}
+
+	/**
+	 * Writes a captured state to a file, copying the waiting beans from the
+	 * machine as it goes.
+	 *
+	 * @param logic the machine the state was captured from
+	 * @param state the state of the machine
+	 * @param path  the file to write
+	 * @throws IOException if the file cannot be written, or the machine was reset
+	 *                     before all of its waiting beans were copied
+	 */
+	static void write(BeanCounterLogic logic, MachineState state, Path path) throws IOException {
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		boolean written = false;
+		try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+			buf.putInt(MAGIC);
+			buf.putInt(VERSION);
+			buf.putInt(state.slots.length);
+			buf.put((byte) (state.isLuck ? 1 : 0));
+			buf.put((byte) (state.hasRandState ? 1 : 0));
+			buf.putLong(state.randState);
+			buf.putLong(state.randGamma);
+			buf.put((byte) (state.hasGaussian ? 1 : 0));
+			buf.putDouble(state.gaussian);
+			putInts(ch, buf, state.slots);
+			putInts(ch, buf, state.inFlightX);
+			putInts(ch, buf, state.inFlightState);
+			ensureRoom(ch, buf, Integer.BYTES);
+			buf.putInt(state.waitingCount);
+			int width = PackedBeanPool.stateWidth(state.slots.length);
+			for (int copied = 0; copied < state.waitingCount; ) {
+				ensureRoom(ch, buf, width);
+				int n = logic.copyWaitingBeans(state, buf, width);
+				if (n < 0) {
+					throw new IOException("Machine was reset during the checkpoint to " + path);
+				}
+				copied += n;
+			}
+			flush(ch, buf);
+			ch.force(true);
+			written = true;
+		} finally {
+			if (!written) {
+				Files.deleteIfExists(tmp);
+			}
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads a state written by write().
+	 *
+	 * @param path the file to read
+	 * @return the state of the machine
+	 * @throws IOException if the file cannot be read or is not a checkpoint
+	 */
+	static MachineState read(Path path) throws IOException {
+		try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+			buf.flip();
+			fill(ch, buf, 3 * Integer.BYTES + 3 + 2 * Long.BYTES + Double.BYTES);
+			if (buf.getInt() != MAGIC) {
+				throw new IOException("Not a bean counter checkpoint: " + path);
+			}
+			int version = buf.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported checkpoint version " + version + ": " + path);
+			}
+			int slotCount = buf.getInt();
+			if (slotCount <= 0) {
+				throw new IOException("Corrupt checkpoint: " + path);
+			}
+			MachineState state = new MachineState();
+			state.isLuck = buf.get() != 0;
+			state.hasRandState = buf.get() != 0;
+			state.randState = buf.getLong();
+			state.randGamma = buf.getLong();
+			state.hasGaussian = buf.get() != 0;
+			state.gaussian = buf.getDouble();
+			state.slots = getInts(ch, buf, slotCount);
+			state.inFlightX = getInts(ch, buf, slotCount - 1);
+			state.inFlightState = getInts(ch, buf, slotCount - 1);
+			fill(ch, buf, Integer.BYTES);
+			int waitingCount = buf.getInt();
+			if (waitingCount < 0) {
+				throw new IOException("Corrupt checkpoint: " + path);
+			}
+			state.waitingCount = waitingCount;
+			int width = PackedBeanPool.stateWidth(slotCount);
+			if (waitingCount <= MAX_UNPOOLED_BEANS) {
+				state.waiting = new int[waitingCount];
+				for (int i = 0; i < waitingCount; i ++) {
+					fill(ch, buf, width);
+					state.waiting[i] = PackedBeanPool.getState(buf, width);
+				}
+				return state;
+			}
+			Path dir = path.toAbsolutePath().getParent();
+			Path scratch = Files.createTempFile(dir, path.getFileName().toString(), ".pool");
+			PackedBeanPool pool = PackedBeanPool.mapped(slotCount, scratch);
+			try {
+				for (int left = waitingCount; left > 0; ) {
+					fill(ch, buf, width);
+					int n = Math.min(left, buf.remaining() / width);
+					pool.addFrom(buf, n);
+					left -= n;
+				}
+			} catch (IOException | RuntimeException e) {
+				pool.close();
+				throw e;
+			}
+			state.pooled = pool;
+			return state;
+		}
+	}
+
+	private static void putInts(FileChannel ch, ByteBuffer buf, int[] values) throws IOException {
+		int i = 0;
+		while (i < values.length) {
+			ensureRoom(ch, buf, Integer.BYTES);
+			int n = Math.min(values.length - i, buf.remaining() / Integer.BYTES);
+			buf.asIntBuffer().put(values, i, n);
+			buf.position(buf.position() + n * Integer.BYTES);
+			i += n;
+		}
+	}
+
+	private static int[] getInts(FileChannel ch, ByteBuffer buf, int count) throws IOException {
+		int[] values = new int[count];
+		int i = 0;
+		while (i < count) {
+			fill(ch, buf, Integer.BYTES);
+			int n = Math.min(count - i, buf.remaining() / Integer.BYTES);
+			buf.asIntBuffer().get(values, i, n);
+			buf.position(buf.position() + n * Integer.BYTES);
+			i += n;
+		}
+		return values;
+	}
+
+	/**
+	 * Writes out the buffer if it has less than the given number of bytes free.
+	 */
+	private static void ensureRoom(FileChannel ch, ByteBuffer buf, int bytes) throws IOException {
+		if (buf.remaining() < bytes) {
+			flush(ch, buf);
+		}
+	}
+
+	private static void flush(FileChannel ch, ByteBuffer buf) throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) {
+			ch.write(buf);
+		}
+		buf.clear();
+	}
+
+	/**
+	 * Reads from the channel until the buffer holds at least the given number of
+	 * bytes, keeping what it already holds.
+	 */
+	private static void fill(FileChannel ch, ByteBuffer buf, int bytes) throws IOException {
+		if (buf.remaining() >= bytes) {
+			return;
+		}
+		buf.compact();
+		while (buf.position() < bytes) {
+			if (ch.read(buf) < 0) {
+				throw new EOFException("Checkpoint ends too early");
+			}
+		}
+		buf.flip();
+	}
+}
@@ -0,0 +1,303 @@
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BeanCounterCheckpointTest {
+	private static final int SLOT_COUNT = 10;
+	private Path dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("checkpoint");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.list(dir).forEach(p -> p.toFile().delete());
+		Files.delete(dir);
+	}
+
+	/**
+	 * Creates a machine partway through an experiment with the given beans.
+	 */
+	private static BeanCounterLogic startedMachine(boolean isLuck, int beanCount, int steps) {
+		SplitMixRandom rand = new SplitMixRandom(42);
+		BeanCounterLogic logic = new BeanCounterLogic(SLOT_COUNT, rand);
+		Bean[] beans = new Bean[beanCount];
+		for (int i = 0; i < beanCount; i ++) {
+			beans[i] = new Bean(isLuck, rand, SLOT_COUNT);
+		}
+		logic.reset(beans);
+		for (int i = 0; i < steps; i ++) {
+			logic.advanceStep();
+		}
+		return logic;
+	}
+
+	private static void assertSameState(BeanCounterLogic expected, BeanCounterLogic actual) {
+		assertEquals(expected.getRemainingBeanCount(), actual.getRemainingBeanCount());
+		for (int i = 0; i < SLOT_COUNT; i ++) {
+			assertEquals(expected.getSlotBeanCount(i), actual.getSlotBeanCount(i));
+		}
+		for (int y = 0; y < SLOT_COUNT - 1; y ++) {
+			assertEquals(expected.getInFlightBeanXPos(y), actual.getInFlightBeanXPos(y));
+		}
+	}
+
+	@Test
+	public void testRestoredLuckMachineFinishesTheSame() throws IOException {
+		BeanCounterLogic logic = startedMachine(true, 500, 40);
+		Path file = dir.resolve("luck.ckpt");
+		BeanCounterCheckpoint.save(logic, file);
+		BeanCounterLogic restored = BeanCounterCheckpoint.restore(file, new SplitMixRandom());
+		assertSameState(logic, restored);
+
+		for (int i = 0; i < 20; i ++) {
+			logic.advanceStep();
+			restored.advanceStep();
+		}
+		assertSameState(logic, restored);
+		logic.runToCompletion();
+		restored.runToCompletion();
+		assertSameState(logic, restored);
+	}
+
+	@Test
+	public void testRestoredSkillMachineFinishesTheSame() throws IOException {
+		BeanCounterLogic logic = startedMachine(false, 300, 25);
+		Path file = dir.resolve("skill.ckpt");
+		BeanCounterCheckpoint.save(logic, file);
+		BeanCounterLogic restored = BeanCounterCheckpoint.restore(file, new SplitMixRandom());
+		assertSameState(logic, restored);
+
+		logic.runToCompletion();
+		restored.runToCompletion();
+		assertSameState(logic, restored);
+		logic.repeat();
+		restored.repeat();
+		logic.runToCompletion();
+		restored.runToCompletion();
+		assertSameState(logic, restored);
+	}
+
+	@Test
+	public void testRestoredGeneratorKeepsCachedGaussian() throws IOException {
+		SplitMixRandom rand = new SplitMixRandom(42);
+		BeanCounterLogic logic = new BeanCounterLogic(SLOT_COUNT, rand);
+		// An odd number of skill beans leaves half a pair of Gaussians cached
+		Bean[] beans = new Bean[7];
+		for (int i = 0; i < beans.length; i ++) {
+			beans[i] = new Bean(false, rand, SLOT_COUNT);
+		}
+		logic.reset(beans);
+		assertTrue(rand.hasCachedGaussian());
+		Path file = dir.resolve("gaussian.ckpt");
+		BeanCounterCheckpoint.save(logic, file);
+		SplitMixRandom restoredRand = new SplitMixRandom();
+		BeanCounterCheckpoint.restore(file, restoredRand);
+		for (int i = 0; i < 20; i ++) {
+			assertEquals(new Bean(false, rand, SLOT_COUNT).right, new Bean(false, restoredRand, SLOT_COUNT).right);
+		}
+	}
+
+	@Test
+	public void testSaveReplacesOlderCheckpoint() throws IOException {
+		BeanCounterLogic logic = startedMachine(true, 100, 5);
+		Path file = dir.resolve("machine.ckpt");
+		BeanCounterCheckpoint.save(logic, file);
+		logic.runToCompletion();
+		BeanCounterCheckpoint.save(logic, file);
+		BeanCounterLogic restored = BeanCounterCheckpoint.restore(file, new SplitMixRandom());
+		assertSameState(logic, restored);
+		assertFalse(Files.exists(dir.resolve("machine.ckpt.tmp")));
+	}
+
+	@Test
+	public void testRestoredPooledMachineFinishesTheSame() throws IOException {
+		SplitMixRandom rand = new SplitMixRandom(42);
+		BeanCounterLogic logic = new BeanCounterLogic(SLOT_COUNT, rand);
+		PackedBeanPool pool = PackedBeanPool.offHeap(SLOT_COUNT);
+		for (int i = 0; i < 400; i ++) {
+			pool.add(Bean.randomState(false, rand, SLOT_COUNT));
+		}
+		logic.reset(pool);
+		for (int i = 0; i < 30; i ++) {
+			logic.advanceStep();
+		}
+		Path file = dir.resolve("pooled.ckpt");
+		BeanCounterCheckpoint.save(logic, file);
+		BeanCounterLogic restored = BeanCounterCheckpoint.restore(file, new SplitMixRandom());
+		assertSameState(logic, restored);
+
+		logic.runToCompletion();
+		restored.runToCompletion();
+		assertSameState(logic, restored);
+	}
+
+	@Test
+	public void testManyWaitingBeansAreRestoredIntoAMappedPool() throws IOException {
+		SplitMixRandom rand = new SplitMixRandom(42);
+		BeanCounterLogic logic = new BeanCounterLogic(SLOT_COUNT, rand);
+		PackedBeanPool pool = PackedBeanPool.offHeap(SLOT_COUNT);
+		pool.add(Bean.LUCK_STATE, (1 << 20) + 100);
+		logic.reset(pool);
+		for (int i = 0; i < 30; i ++) {
+			logic.advanceStep();
+		}
+		Path file = dir.resolve("big.ckpt");
+		BeanCounterCheckpoint.save(logic, file);
+		BeanCounterLogic restored = BeanCounterCheckpoint.restore(file, new SplitMixRandom());
+		assertSameState(logic, restored);
+		BeanCounterCheckpoint.MachineState state = BeanCounterCheckpoint.read(file);
+		assertNotNull(state.pooled);
+		assertEquals(state.pooled.size(), logic.getRemainingBeanCount());
+		state.pooled.close();
+
+		logic.runToCompletion();
+		restored.runToCompletion();
+		assertEquals(logic.getStatistics().getCount(), restored.getStatistics().getCount());
+		restored.reset(new Bean[0]);
+		pool.close();
+	}
+
+	@Test
+	public void testMachineClosesTheRestoredPool() throws IOException {
+		SplitMixRandom rand = new SplitMixRandom(42);
+		BeanCounterLogic logic = new BeanCounterLogic(SLOT_COUNT, rand);
+		PackedBeanPool pool = PackedBeanPool.offHeap(SLOT_COUNT);
+		pool.add(Bean.LUCK_STATE, (1 << 20) + 100);
+		logic.reset(pool);
+		Path file = dir.resolve("owned.ckpt");
+		BeanCounterCheckpoint.save(logic, file);
+
+		BeanCounterLogic restored = new BeanCounterLogic(SLOT_COUNT, new SplitMixRandom());
+		BeanCounterCheckpoint.MachineState first = BeanCounterCheckpoint.read(file);
+		restored.restoreState(first);
+		BeanCounterCheckpoint.MachineState second = BeanCounterCheckpoint.read(file);
+		restored.restoreState(second);
+		assertFalse(first.pooled.isOpen());
+		assertTrue(second.pooled.isOpen());
+		restored.reset(new Bean[0]);
+		assertFalse(second.pooled.isOpen());
+		assertFalse(Files.list(dir).anyMatch(p -> p.getFileName().toString().endsWith(".pool")));
+
+		// Handing the machine a pool of the caller's also lets go of the restored one
+		BeanCounterCheckpoint.MachineState third = BeanCounterCheckpoint.read(file);
+		restored.restoreState(third);
+		restored.reset(pool);
+		assertFalse(third.pooled.isOpen());
+		restored.reset(new Bean[0]);
+		assertTrue(pool.isOpen());
+		pool.close();
+	}
+
+	@Test
+	public void testRestoredStatisticsMatch() throws IOException {
+		BeanCounterLogic logic = startedMachine(true, 1000, 600);
+		Path file = dir.resolve("stats.ckpt");
+		BeanCounterCheckpoint.save(logic, file);
+		BeanCounterLogic restored = BeanCounterCheckpoint.restore(file, new SplitMixRandom());
+		SlotStatistics expected = logic.getStatistics();
+		SlotStatistics actual = restored.getStatistics();
+		assertEquals(expected.getCount(), actual.getCount());
+		assertEquals(expected.getMean(), actual.getMean(), 1e-9);
+		assertEquals(expected.getVariance(), actual.getVariance(), 1e-9);
+		assertEquals(expected.getMedian(), actual.getMedian());
+	}
+
+	@Test
+	public void testCheckpointIsOfTheMomentItWasCaptured() throws IOException {
+		BeanCounterLogic logic = startedMachine(false, 2000, 30);
+		BeanCounterLogic expected = startedMachine(false, 2000, 30);
+		Path file = dir.resolve("moving.ckpt");
+		BeanCounterCheckpoint.MachineState state = logic.captureState();
+		for (int i = 0; i < 50; i ++) {
+			logic.advanceStep();
+		}
+		logic.runToCompletion();
+		logic.repeat();
+		BeanCounterCheckpoint.write(logic, state, file);
+		logic.endCapture(state);
+		BeanCounterLogic restored = BeanCounterCheckpoint.restore(file, new SplitMixRandom());
+		assertSameState(expected, restored);
+
+		expected.runToCompletion();
+		restored.runToCompletion();
+		assertSameState(expected, restored);
+	}
+
+	@Test
+	public void testPooledCheckpointIsOfTheMomentItWasCaptured() throws IOException {
+		BeanCounterLogic[] machines = new BeanCounterLogic[2];
+		for (int m = 0; m < machines.length; m ++) {
+			SplitMixRandom rand = new SplitMixRandom(42);
+			machines[m] = new BeanCounterLogic(SLOT_COUNT, rand);
+			PackedBeanPool pool = PackedBeanPool.offHeap(SLOT_COUNT);
+			for (int i = 0; i < 400; i ++) {
+				pool.add(Bean.randomState(false, rand, SLOT_COUNT));
+			}
+			machines[m].reset(pool);
+			for (int i = 0; i < 20; i ++) {
+				machines[m].advanceStep();
+			}
+		}
+		BeanCounterLogic logic = machines[0];
+		Path file = dir.resolve("moving-pooled.ckpt");
+		BeanCounterCheckpoint.MachineState state = logic.captureState();
+		for (int i = 0; i < 100; i ++) {
+			logic.advanceStep();
+		}
+		BeanCounterCheckpoint.write(logic, state, file);
+		logic.endCapture(state);
+		BeanCounterLogic restored = BeanCounterCheckpoint.restore(file, new SplitMixRandom());
+		assertSameState(machines[1], restored);
+
+		machines[1].runToCompletion();
+		restored.runToCompletion();
+		assertSameState(machines[1], restored);
+	}
+
+	@Test
+	public void testResetDuringCheckpointFails() throws IOException {
+		BeanCounterLogic logic = startedMachine(true, 100, 5);
+		Path file = dir.resolve("reset.ckpt");
+		BeanCounterCheckpoint.MachineState state = logic.captureState();
+		logic.reset(new Bean[0]);
+		try {
+			BeanCounterCheckpoint.write(logic, state, file);
+			fail("Checkpoint of a machine reset halfway through was written");
+		} catch (IOException ioe) {
+			// Expected
+		}
+		assertFalse(Files.exists(file));
+		assertFalse(Files.exists(dir.resolve("reset.ckpt.tmp")));
+	}
+
+	@Test(expected = IOException.class)
+	public void testRejectsOtherFiles() throws IOException {
+		Path file = dir.resolve("other.ckpt");
+		ByteBuffer buf = ByteBuffer.allocate(64);
+		buf.putInt(0x12345678);
+		Files.write(file, buf.array());
+		BeanCounterCheckpoint.restore(file, new SplitMixRandom());
+	}
+
+	@Test(expected = IOException.class)
+	public void testRejectsTruncatedFile() throws IOException {
+		BeanCounterLogic logic = startedMachine(false, 100, 5);
+		Path file = dir.resolve("short.ckpt");
+		BeanCounterCheckpoint.save(logic, file);
+		byte[] bytes = Files.readAllBytes(file);
+		byte[] shorter = new byte[bytes.length - 8];
+		System.arraycopy(bytes, 0, shorter, 0, shorter.length);
+		Files.write(file, shorter);
+		BeanCounterCheckpoint.restore(file, new SplitMixRandom());
+	}
+}
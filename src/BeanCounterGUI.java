@@ -5,19 +5,22 @@ import javax.swing.*;
 public class BeanCounterGUI {
 
 	public static void showUsage() {
-		System.out.println("Usage: java BeanCounterGUI <number of beans> <luck | skill>");
+		System.out.println("Usage: java BeanCounterGUI <number of beans> <luck | skill> [--slots <n>]");
 		System.out.println("Example: java BeanCounterGUI 400 luck");
+		System.out.println("The GUI shows at most " + MainPanel.MAX_SLOT_COUNT
+				+ " slots; use java BeanCounterLogic for larger machines.");
 	}
 
 	/**
 	 * Main method. Creates the main frame for the app.
 	 * 
 	 * @param args args[0] is an integer bean count, args[1] is a string which is
-	 *             either luck or skill.
+	 *             either luck or skill. Optionally followed by --slots and the
+	 *             number of slots.
 	 */
 
 	public static void main(String[] args) {
-		if (args.length != 2) {
+		if (args.length != 2 && args.length != 4) {
 			showUsage();
 			return;
 		}
@@ -43,9 +46,27 @@ public class BeanCounterGUI {
 			showUsage();
 			return;
 		}
+
+		int slotCount = Bean.DEFAULT_SLOT_COUNT;
+		if (args.length == 4) {
+			if (!args[2].equals("--slots")) {
+				showUsage();
+				return;
+			}
+			try {
+				slotCount = Integer.parseInt(args[3]);
+			} catch (NumberFormatException ne) {
+				showUsage();
+				return;
+			}
+			if (slotCount <= 0 || slotCount > MainPanel.MAX_SLOT_COUNT) {
+				showUsage();
+				return;
+			}
+		}
 		
 		// Create the main frame for the app
-		new MainFrame(beanCount, luck);
+		new MainFrame(beanCount, luck, slotCount);
 	}
 
 }
@@ -0,0 +1,57 @@
+/**
+ * BeanCounterListener: Receives the events of a BeanCounterLogic as they
+ * happen, so that a consumer can keep its own statistics up to date bean by
+ * bean instead of going over all the slots every time. The events only carry
+ * primitives, so firing them does not allocate anything. They are delivered on
+ * the thread that drives the machine, while it holds the machine's write lock,
+ * so they must be quick and must not call back into the machine.
+ *
+ * <p>All events have empty defaults; implement only the ones you need.</p>
+ */
+public interface BeanCounterListener {
+
+	/**
+	 * A bean left the waiting pool and entered the top of the machine.
+	 */
+	default void beanInserted() {
+	}
+
+	/**
+	 * A bean landed in a slot.
+	 *
+	 * @param slot the index of the slot
+	 */
+	default void beanLanded(int slot) {
+	}
+
+	/**
+	 * Beans were taken out of a slot by upperHalf() or lowerHalf().
+	 *
+	 * @param slot  the index of the slot
+	 * @param count the number of beans taken out
+	 */
+	default void beansRemoved(int slot, int count) {
+	}
+
+	/**
+	 * The machine was reset with a new set of beans. The slots are empty.
+	 */
+	default void machineReset() {
+	}
+
+	/**
+	 * All the beans were scooped back into the waiting pool by repeat(). The slots
+	 * are empty.
+	 */
+	default void machineRepeated() {
+	}
+
+	/**
+	 * The machine was restored from a checkpoint. The slots now hold the given
+	 * counts.
+	 *
+	 * @param slots the number of beans in each slot, not to be changed
+	 */
+	default void machineRestored(int[] slots) {
+	}
+}
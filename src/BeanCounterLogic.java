@@ -1,10 +1,12 @@
 import gov.nasa.jpf.vm.Verify;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.Queue;
 import java.util.Random;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
 
 /**
  * Code by @author Wonsun Ahn
@@ -31,18 +33,75 @@ import java.util.Random;
  * 0 1 3 6 10 15
  * 0 1 2 3 4 5 6 7 8 9 
  * 0 1 1 2 2 2 3 3 3 3</p>
+ *
+ * <p>There is at most one bean in each row, and every step moves all of them
+ * down by one row. So the in-flight beans are kept in a ring buffer with one
+ * entry per row, together with their x-coordinates. Row y lives at index
+ * (head + y) % rows, and moving every bean down a row is just a matter of
+ * moving head back by one.</p>
+ *
+ * <p>Stepping does not allocate. The waiting beans are kept in a BeanQueue, the
+ * ring and slots are reused by reset(), and beans that land are kept in a free
+ * queue so repeat() can put them back in the machine instead of creating new
+ * ones. The free queue never holds more beans than were passed to reset(),
+ * which are live anyway, so memory still does not grow with the number of
+ * beans that have landed.</p>
+ *
+ * <p>For experiments too big for the heap, reset(PackedBeanPool) keeps the
+ * waiting beans packed outside it instead. Only the in-flight beans are objects
+ * then, runToCompletion() lands the rest straight from their packed state, and
+ * repeat() puts the scooped-up beans back into the pool. A pool restored from a
+ * checkpoint belongs to the machine, which closes it on the next reset or
+ * restore.</p>
+ *
+ * <p>One thread at a time drives the machine. The methods that change it take a
+ * write lock, which costs nothing when no one else holds it. Any other thread
+ * reads the machine through snapshot(), which copies it optimistically, like a
+ * seqlock. The copy is retried if a change happened in the middle of it, so
+ * readers never block the thread that drives the machine and never see a
+ * half-finished step. The other getters are for the driving thread only.</p>
  */
 
 public class BeanCounterLogic {
 	// TODO: Add member methods and variables as needed
-	public Queue<Bean> waitingBeans;
-	public Bean[] pegs;
-	public ArrayList<Bean>[] slots;
-	public int slottedBeanCount = 0;
+	BeanQueue waitingBeans;
+	Bean[] ring;						// In-flight beans, one entry per row
+	int[] ringX;						// X-coordinate of each in-flight bean in ring
+	int head;							// Index in ring of the top row
+	int[] slots;						// Counts-only histogram of beans in each slot
+
+	// Held for writing while the machine changes; readers only validate against it
+	private final StampedLock stateLock = new StampedLock();
+	private static final int OPTIMISTIC_READ_ATTEMPTS = 8;
+	private static final int COMPLETION_CHUNK_SIZE = 1 << 16;
+
+	// The slots only keep counts, so landed beans wait here until repeat() gives
+	// them the skill level of the slot they are scooped out of.
+	private BeanQueue landedBeans;
+	// Waiting beans that come after those in waitingBeans, or null if not pooled
+	private PackedBeanPool pooledBeans;
+	private boolean ownsPool;			// Whether pooledBeans came from a checkpoint
+	private long takenBeans;			// Waiting beans taken since the last reset
+	// Checkpoint that is still copying waiting beans, or null
+	private BeanCounterCheckpoint.MachineState capture;
+	private boolean isLuck;
+	private Random rand;				// Generator shared by the machine and its beans
 
 	// No bean in that particular Y coordinate
 	public static final int NO_BEAN_IN_YPOS = -1;
 
+	// Trace levels for setTrace()
+	public static final int TRACE_OFF = 0;
+	public static final int TRACE_SUMMARY = 1;	// One message per repeat()
+	public static final int TRACE_BEANS = 2;		// Also one message per slot and in-flight bean
+
+	private int traceLevel = TRACE_OFF;
+	private Consumer<String> trace;
+
+	// Copied on every change, so firing events never allocates
+	private BeanCounterListener[] listeners = new BeanCounterListener[0];
+	private SlotStatistics statistics;	// Distribution of the landing slots
+
 
 	/**
 	 * Constructor - creates the bean counter logic object that implements the core
@@ -51,18 +110,378 @@ public class BeanCounterLogic {
 	 * @param slotCount the number of slots in the machine
 	 */
 	BeanCounterLogic(int slotCount) {
-		slots = new ArrayList[slotCount];
+		this(slotCount, new SplitMixRandom());
+	}
+
+	/**
+	 * Constructor - creates the bean counter logic object with the given random
+	 * number generator. Pass the same generator to the beans so that a whole run
+	 * is reproducible from a single seed.
+	 * 
+	 * @param slotCount the number of slots in the machine
+	 * @param rand      the random number generator
+	 */
+	BeanCounterLogic(int slotCount, Random rand) {
+		this.rand = rand;
+		slots = new int[slotCount];
+		ring = new Bean[slotCount - 1];
+		ringX = new int[slotCount - 1];
+		waitingBeans = new BeanQueue(slotCount);
+		landedBeans = new BeanQueue(slotCount);
+		statistics = new SlotStatistics(slotCount);
+		addListener(statistics.updater());
 		Bean[] arr = {};
 		reset(arr);
 	}
 
+	/**
+	 * Sets where diagnostic messages go and how many of them to produce. Tracing
+	 * is off by default, in which case no messages are built at all.
+	 * 
+	 * @param level one of TRACE_OFF, TRACE_SUMMARY or TRACE_BEANS
+	 * @param trace receives each message, or null to turn tracing off
+	 */
+	void setTrace(int level, Consumer<String> trace) {
+		this.traceLevel = trace == null ? TRACE_OFF : level;
+		this.trace = trace;
+	}
+
+	/**
+	 * Registers a listener for the events of the machine.
+	 * 
+	 * @param l the listener
+	 */
+	public void addListener(BeanCounterListener l) {
+		long stamp = stateLock.writeLock();
+		try {
+			listeners = Arrays.copyOf(listeners, listeners.length + 1);
+			listeners[listeners.length - 1] = l;
+		} finally {
+			stateLock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Unregisters a listener. Does nothing if it was not registered.
+	 * 
+	 * @param l the listener
+	 */
+	public void removeListener(BeanCounterListener l) {
+		long stamp = stateLock.writeLock();
+		try {
+			for (int i = 0; i < listeners.length; i ++) {
+				if (listeners[i] == l) {
+					BeanCounterListener[] fewer = new BeanCounterListener[listeners.length - 1];
+					System.arraycopy(listeners, 0, fewer, 0, i);
+					System.arraycopy(listeners, i + 1, fewer, i, fewer.length - i);
+					listeners = fewer;
+					return;
+				}
+			}
+		} finally {
+			stateLock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Puts the next waiting bean, if any, in the top row. A machine with a single
+	 * slot has no rows, and its beans are handled by advanceStep() directly.
+	 */
+	private void insertWaitingBean() {
+		if (ring.length == 0) {
+			return;
+		}
+		Bean b = pollWaitingBean();
+		if (b == null) {
+			return;
+		}
+		putInFlightBean(0, 0, b);
+		for (BeanCounterListener l : listeners) {
+			l.beanInserted();
+		}
+	}
+
+	/**
+	 * Removes the next waiting bean, unpacking it if it comes from the pool.
+	 * 
+	 * @return the bean, or null if there are no waiting beans
+	 */
+	private Bean pollWaitingBean() {
+		Bean b = waitingBeans.poll();
+		if (b != null) {
+			tookWaitingBean(capture == null ? 0 : b.getState());
+		} else if (pooledBeans != null && pooledBeans.size() > 0) {
+			int state = pooledBeans.poll();
+			tookWaitingBean(state);
+			b = Bean.fromState(state, rand);
+		}
+		return b;
+	}
+
+	/**
+	 * Counts a bean taken from the front of the waiting beans. A checkpoint that
+	 * has not copied the bean yet is given its state now, before it starts to
+	 * fall.
+	 * 
+	 * @param state the state of the bean (only used by a checkpoint)
+	 */
+	private void tookWaitingBean(int state) {
+		if (capture != null) {
+			capture.keepTaken(takenBeans, state);
+		}
+		takenBeans++;
+	}
+
+	/**
+	 * Keeps a landed bean for repeat() to reuse. A pooled machine puts its beans
+	 * back into the pool as states instead, so it keeps none.
+	 * 
+	 * @param b the bean
+	 */
+	private void keepLanded(Bean b) {
+		if (pooledBeans == null) {
+			landedBeans.add(b);
+		}
+	}
+
+	private int pooledBeanCount() {
+		PackedBeanPool pool = pooledBeans;
+		return pool == null ? 0 : pool.size();
+	}
+
+	/**
+	 * Adds a bean to a slot.
+	 * 
+	 * @param slot the index of the slot
+	 */
+	private void land(int slot) {
+		slots[slot]++;
+		for (BeanCounterListener l : listeners) {
+			l.beanLanded(slot);
+		}
+	}
+
+	/**
+	 * Returns the distribution of the slots the beans landed in, which is kept up
+	 * to date as they land. For the driving thread only; other threads can get it
+	 * from snapshot().
+	 * 
+	 * @return the statistics
+	 */
+	public SlotStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Takes a consistent copy of the machine that can be read from any thread.
+	 * The copy is made without locking and is retried if the machine changed while
+	 * it was being made. Only if that keeps happening is the driving thread held
+	 * off for the length of one copy.
+	 * 
+	 * @return the snapshot
+	 */
+	public BeanCounterSnapshot snapshot() {
+		int[] slotCounts = new int[slots.length];
+		int[] inFlightX = new int[ring.length];
+		for (int attempt = 0; attempt < OPTIMISTIC_READ_ATTEMPTS; attempt ++) {
+			long stamp = stateLock.tryOptimisticRead();
+			int remaining = copyState(slotCounts, inFlightX);
+			SlotStatistics stats = new SlotStatistics(statistics);
+			if (stateLock.validate(stamp)) {
+				return new BeanCounterSnapshot(slotCounts, inFlightX, remaining, stats);
+			}
+		}
+		long stamp = stateLock.readLock();
+		try {
+			int remaining = copyState(slotCounts, inFlightX);
+			return new BeanCounterSnapshot(slotCounts, inFlightX, remaining, new SlotStatistics(statistics));
+		} finally {
+			stateLock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Copies the slot counts and the in-flight x-coordinates. The copy may be torn
+	 * if the machine changes meanwhile, which snapshot() checks for.
+	 * 
+	 * @param slotCounts filled with the number of beans in each slot
+	 * @param inFlightX  filled with the x-coordinate of the bean in each row
+	 * @return the number of beans waiting to be inserted
+	 */
+	private int copyState(int[] slotCounts, int[] inFlightX) {
+		System.arraycopy(slots, 0, slotCounts, 0, slotCounts.length);
+		int top = head;
+		for (int y = 0; y < inFlightX.length; y ++) {
+			int i = top + y;
+			inFlightX[y] = ringX[i < ringX.length ? i : i - ringX.length];
+		}
+		return waitingBeans.size() + pooledBeanCount();
+	}
+
+	/**
+	 * Copies everything needed to carry on with the experiment later, except the
+	 * waiting beans, which can be far too many to copy while the driving thread
+	 * is held off. Instead their position is recorded, and copyWaitingBeans()
+	 * reads them afterwards. Only one checkpoint can read them at a time.
+	 * 
+	 * @return the state of the machine
+	 */
+	BeanCounterCheckpoint.MachineState captureState() {
+		BeanCounterCheckpoint.MachineState state = new BeanCounterCheckpoint.MachineState();
+		long stamp = stateLock.writeLock();
+		try {
+			state.isLuck = isLuck;
+			if (rand instanceof SplitMixRandom) {
+				SplitMixRandom splitMix = (SplitMixRandom) rand;
+				state.hasRandState = true;
+				state.randState = splitMix.getState();
+				state.randGamma = splitMix.getGamma();
+				state.hasGaussian = splitMix.hasCachedGaussian();
+				state.gaussian = splitMix.getCachedGaussian();
+			}
+			state.slots = slots.clone();
+			state.inFlightX = new int[ring.length];
+			state.inFlightState = new int[ring.length];
+			for (int y = 0; y < ring.length; y ++) {
+				int i = ringIndex(y);
+				state.inFlightX[y] = ring[i] == null ? NO_BEAN_IN_YPOS : ringX[i];
+				state.inFlightState[y] = ring[i] == null ? 0 : ring[i].getState();
+			}
+			state.waitingCount = getRemainingBeanCount();
+			state.waitingFront = takenBeans;
+			state.waitingCopied = takenBeans;
+			capture = state.waitingCount > 0 ? state : null;
+		} finally {
+			stateLock.unlockWrite(stamp);
+		}
+		return state;
+	}
+
+	/**
+	 * Copies the next waiting beans of a captured state into a buffer, packed as
+	 * by PackedBeanPool.putState(). The beans the machine has taken since the
+	 * capture were handed to the state as they were taken; the rest are still
+	 * waiting and are read in place. The driving thread is only held off for one
+	 * chunk of beans at a time.
+	 * 
+	 * @param state the state returned by captureState()
+	 * @param dst   the buffer
+	 * @param width the number of bytes per bean
+	 * @return the number of beans copied, or -1 if the machine was reset or
+	 *         restored, or another checkpoint was captured, since the capture
+	 */
+	int copyWaitingBeans(BeanCounterCheckpoint.MachineState state, ByteBuffer dst, int width) {
+		long stamp = stateLock.readLock();
+		try {
+			long end = state.waitingFront + state.waitingCount;
+			if (state.waitingCopied == end) {
+				return 0;
+			}
+			if (capture != state) {
+				return -1;
+			}
+			int count = (int) Math.min(Math.min(dst.remaining() / width, COMPLETION_CHUNK_SIZE),
+					end - state.waitingCopied);
+			for (int n = 0; n < count; n ++) {
+				int s;
+				if (state.hasTaken()) {
+					s = state.nextTaken();
+				} else {
+					int i = (int) (state.waitingCopied - takenBeans);
+					int queued = waitingBeans.size();
+					if (i >= queued) {
+						// The rest are in the pool, already packed the same way
+						int copied = pooledBeans.copyTo(i - queued, count - n, dst);
+						state.waitingCopied += copied;
+						return n + copied;
+					}
+					s = waitingBeans.get(i).getState();
+				}
+				PackedBeanPool.putState(dst, width, s);
+				state.waitingCopied++;
+			}
+			return count;
+		} finally {
+			stateLock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Stops handing taken beans to a captured state, once its checkpoint is
+	 * written or has failed.
+	 * 
+	 * @param state the state returned by captureState()
+	 */
+	void endCapture(BeanCounterCheckpoint.MachineState state) {
+		long stamp = stateLock.writeLock();
+		try {
+			if (capture == state) {
+				capture = null;
+			}
+		} finally {
+			stateLock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Puts the machine back in a state read by BeanCounterCheckpoint, generator
+	 * included if it was saved. A pool in the state becomes the pool of the
+	 * machine, which closes it on the next reset or restore. A state straight
+	 * from captureState() can only be restored if it has no waiting beans, since
+	 * those are not copied until it is written.
+	 * 
+	 * @param state the state of the machine, with the same number of slots
+	 */
+	void restoreState(BeanCounterCheckpoint.MachineState state) {
+		int pooledCount = state.pooled == null ? 0 : state.pooled.size();
+		if (state.waiting.length + pooledCount != state.waitingCount) {
+			throw new IllegalArgumentException("The waiting beans of the state have not been read");
+		}
+		long stamp = stateLock.writeLock();
+		try {
+			isLuck = state.isLuck;
+			if (state.hasRandState && rand instanceof SplitMixRandom) {
+				rand.setSeed(state.randState);
+				((SplitMixRandom) rand).setGamma(state.randGamma);
+				if (state.hasGaussian) {
+					((SplitMixRandom) rand).setCachedGaussian(state.gaussian);
+				}
+			}
+			System.arraycopy(state.slots, 0, slots, 0, slots.length);
+			head = 0;
+			for (int y = 0; y < ring.length; y ++) {
+				boolean empty = state.inFlightX[y] == NO_BEAN_IN_YPOS;
+				ring[y] = empty ? null : Bean.fromState(state.inFlightState[y], rand);
+				ringX[y] = state.inFlightX[y];
+			}
+			waitingBeans.clear();
+			waitingBeans.ensureCapacity(state.waiting.length);
+			for (int s : state.waiting) {
+				waitingBeans.add(Bean.fromState(s, rand));
+			}
+			if (pooledBeans != state.pooled) {
+				releasePool();
+			}
+			pooledBeans = state.pooled;
+			ownsPool = state.pooled != null;
+			landedBeans.clear();
+			takenBeans = 0;
+			capture = null;
+			for (BeanCounterListener l : listeners) {
+				l.machineRestored(slots);
+			}
+		} finally {
+			stateLock.unlockWrite(stamp);
+		}
+	}
+
 	/**
 	 * Returns the number of beans remaining that are waiting to get inserted.
 	 * 
 	 * @return number of beans remaining
 	 */
 	public int getRemainingBeanCount() {
-		return waitingBeans.size();
+		return waitingBeans.size() + pooledBeanCount();
 	}
 
 	/**
@@ -72,20 +491,51 @@ public class BeanCounterLogic {
 	 * @return the x-coordinate of the in-flight bean
 	 */
 	public int getInFlightBeanXPos(int yPos) {
-		if (pegs.length == 0) {
+		if (yPos < 0 || yPos >= ring.length) {
 			return NO_BEAN_IN_YPOS;
 		}
-//		if (pegs.length == 1 && pegs[0] != null) {
-//			return 0;
-//		}
-		int i = yPos * (yPos + 1) / 2;
-		for (int j = i; j < i + yPos + 1 && j < pegs.length; j ++) {
-			Bean b = pegs[j];
-			if (b != null) {
-				return j - i;
-			}
+		return ringX[ringIndex(yPos)];
+	}
+
+	/**
+	 * Returns the in-flight bean at the provided y-coordinate.
+	 * 
+	 * @param yPos the y-coordinate in which to look for the in-flight bean
+	 * @return the in-flight bean, or null if there is none
+	 */
+	Bean getInFlightBean(int yPos) {
+		if (yPos < 0 || yPos >= ring.length) {
+			return null;
 		}
-		return NO_BEAN_IN_YPOS;
+		return ring[ringIndex(yPos)];
+	}
+
+	/**
+	 * Puts a bean in-flight at the given logical coordinate. There can only be one
+	 * bean per row, so this replaces whatever was in the row.
+	 * 
+	 * @param yPos the row to put the bean in
+	 * @param xPos the x-coordinate of the bean within the row
+	 * @param b    the bean, or null to leave the row empty
+	 */
+	void putInFlightBean(int yPos, int xPos, Bean b) {
+		if (b == null) {
+			return;
+		}
+		int i = ringIndex(yPos);
+		ring[i] = b;
+		ringX[i] = xPos;
+	}
+
+	/**
+	 * Translates a row into an index in the ring buffer.
+	 * 
+	 * @param yPos the row
+	 * @return the index of the row in ring and ringX
+	 */
+	private int ringIndex(int yPos) {
+		int i = head + yPos;
+		return i < ring.length ? i : i - ring.length;
 	}
 
 	/**
@@ -95,7 +545,7 @@ public class BeanCounterLogic {
 	 * @return number of beans in slot
 	 */
 	public int getSlotBeanCount(int i) {
-		return slots[i].size();
+		return slots[i];
 	}
 
 	/**
@@ -107,7 +557,7 @@ public class BeanCounterLogic {
 		int l = slots.length;
 		double t = 0.0;
 		for (int i = 0; i < l; i ++) {
-			t += (double)slots[i].size();
+			t += (double)slots[i];
 		}
 		return t / (double)l;
 	}
@@ -119,60 +569,151 @@ public class BeanCounterLogic {
 	public int getHalf() {
 		int count = 0;
 		for (int i = 0; i < slots.length; i ++) {
-			count += slots[i].size();
+			count += slots[i];
 		}
 		return count / 2;
 	}
 
+	private void fireBeansRemoved(int slot, int count) {
+		if (count == 0) {
+			return;
+		}
+		for (BeanCounterListener l : listeners) {
+			l.beansRemoved(slot, count);
+		}
+	}
+
 	/**
 	 * Removes the lower half of all beans currently in slots, keeping only the
-	 * upper half.
+	 * upper half. Whole slots are emptied from the left until the cut point is
+	 * reached, which takes one pass over the slot counts.
 	 */
 	public void upperHalf() {
-		int half = getHalf();
-		int s = 0;
-		for (int i = 0; i < half; i ++) {
-			ArrayList slot = slots[s];
-			while (slot.size() == 0) {
-				s++;
-				slot = slots[s];
+		long stamp = stateLock.writeLock();
+		try {
+			int remove = getHalf();
+			landedBeans.drop(remove);
+			for (int s = 0; remove > 0; s ++) {
+				int cut = Math.min(slots[s], remove);
+				slots[s] -= cut;
+				remove -= cut;
+				fireBeansRemoved(s, cut);
 			}
-			slot.remove(0);
+		} finally {
+			stateLock.unlockWrite(stamp);
 		}
 	}
 
 	/**
 	 * Removes the upper half of all beans currently in slots, keeping only the
-	 * lower half.
+	 * lower half. Whole slots are emptied from the right until the cut point is
+	 * reached, which takes one pass over the slot counts.
 	 */
 	public void lowerHalf() {
-		int half = getHalf();
-		int s = slots.length - 1;
-		for (int i = 0; i < half; i ++) {
-			ArrayList slot = slots[s];
-			while (slot.size() == 0) {
-				s--;
-				slot = slots[s];
+		long stamp = stateLock.writeLock();
+		try {
+			int remove = getHalf();
+			landedBeans.drop(remove);
+			for (int s = slots.length - 1; remove > 0; s --) {
+				int cut = Math.min(slots[s], remove);
+				slots[s] -= cut;
+				remove -= cut;
+				fireBeansRemoved(s, cut);
 			}
-			slot.remove(slot.size() - 1);
+		} finally {
+			stateLock.unlockWrite(stamp);
 		}
 	}
 
 	/**
 	 * A hard reset. Initializes the machine with the passed beans. The machine
-	 * starts with one bean at the top.
+	 * starts with one bean at the top. The buffers of the previous experiment are
+	 * reused, so this only allocates when given more beans than ever before.
+	 * repeat() re-creates beans in the mode of the first bean, or in skill mode if
+	 * there are none, whatever the previous experiment used.
 	 */
 	public void reset(Bean[] beans) {
-		int t = slots.length - 1;
-		pegs = new Bean[t * (t + 1) / 2];
-		for (int i = 0; i < slots.length; i ++) {
-			slots[i] = new ArrayList<Bean>();
+		long stamp = stateLock.writeLock();
+		try {
+			clearMachine();
+			isLuck = beans.length > 0 && beans[0].isLuck;
+			waitingBeans.addAll(beans);
+			landedBeans.ensureCapacity(beans.length);
+			for (BeanCounterListener l : listeners) {
+				l.machineReset();
+			}
+			insertWaitingBean();
+		} finally {
+			stateLock.unlockWrite(stamp);
 		}
-		waitingBeans = new LinkedList(Arrays.asList(beans));
-		if (pegs.length > 0) {
-			pegs[0] = waitingBeans.poll();
-		} else if (slots.length == 0) {
-			slots[0].add(waitingBeans.poll());
+	}
+
+	/**
+	 * A hard reset with the waiting beans kept packed in a pool instead of as
+	 * objects. The machine takes its beans from the pool and puts them back into
+	 * it on repeat(), until the next reset. As with reset(Bean[]), an empty pool
+	 * puts the machine in skill mode.
+	 * 
+	 * <p>The pool stays with the caller, who closes it once the machine has been
+	 * reset with something else. The machine only closes pools it restored from a
+	 * checkpoint itself, including one it held until this reset.</p>
+	 * 
+	 * @param beans the pool of beans, made for a machine with this many slots
+	 */
+	public void reset(PackedBeanPool beans) {
+		if (!beans.isOpen()) {
+			throw new IllegalArgumentException("Pool is closed");
+		}
+		if (beans.getSlotCount() != slots.length) {
+			throw new IllegalArgumentException("Pool is for " + beans.getSlotCount() + " slots, not "
+					+ slots.length);
+		}
+		long stamp = stateLock.writeLock();
+		try {
+			clearMachine();
+			isLuck = beans.size() > 0 && beans.get(0) == Bean.LUCK_STATE;
+			pooledBeans = beans;
+			for (BeanCounterListener l : listeners) {
+				l.machineReset();
+			}
+			insertWaitingBean();
+		} finally {
+			stateLock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Empties the rows, the slots and the queues for reset(). The pool is let go
+	 * of, and closed if the machine owns it, so no pool is ever dropped without
+	 * its owner knowing.
+	 */
+	private void clearMachine() {
+		Arrays.fill(ring, null);
+		Arrays.fill(ringX, NO_BEAN_IN_YPOS);
+		head = 0;
+		Arrays.fill(slots, 0);
+		waitingBeans.clear();
+		releasePool();
+		landedBeans.clear();
+		takenBeans = 0;
+		capture = null;
+	}
+
+	/**
+	 * Lets go of the pool of the machine, closing it if the machine owns it, which
+	 * deletes the scratch file of a mapped pool.
+	 */
+	private void releasePool() {
+		PackedBeanPool pool = pooledBeans;
+		boolean owned = ownsPool;
+		pooledBeans = null;
+		ownsPool = false;
+		if (owned) {
+			try {
+				pool.close();
+			} catch (IOException ioe) {
+				throw new IllegalStateException("Cannot close bean pool file", ioe);
+			}
 		}
 	}
 
@@ -180,24 +721,83 @@ public class BeanCounterLogic {
 	 * Repeats the experiment by scooping up all beans in the slots and all beans
 	 * in-flight and adding them into the pool of remaining beans. As in the
 	 * beginning, the machine starts with one bean at the top.
+	 * 
+	 * <p>Luck beans carry no state, so the landed beans are moved over in bulk.
+	 * Skill beans are given the skill level of their slot on the way, and an
+	 * in-flight skill bean gets back the right turns it has used up. A pooled
+	 * machine writes the beans of each slot into the pool as one run of states.</p>
 	 */
 	public void repeat() {
-		for (int i = 0; i < slots.length; i ++) {
-			ArrayList<Bean> slot = slots[i];
-			for (int j = 0; j < slot.size(); j ++) {
-				System.out.println("Found bean at slot = " + i);
-				waitingBeans.add(slot.remove(0));
+		long stamp = stateLock.writeLock();
+		try {
+			int slotted = 0;
+			for (int i = 0; i < slots.length; i ++) {
+				if (traceLevel >= TRACE_BEANS && slots[i] > 0) {
+					trace.accept("Found " + slots[i] + " beans at slot = " + i);
+				}
+				slotted += slots[i];
 			}
-		}
-		for (int k = 0; k < pegs.length; k ++) {
-			if (pegs[k] != null) {
-				System.out.println("Found bean at k = " + k);
-				waitingBeans.add(pegs[k]);
-				pegs[k] = null;
+			if (pooledBeans != null) {
+				for (int i = 0; i < slots.length; i ++) {
+					pooledBeans.add(isLuck ? Bean.LUCK_STATE : i, slots[i]);
+				}
+			} else if (isLuck) {
+				waitingBeans.ensureCapacity(waitingBeans.size() + slotted + ring.length);
+				int moved = Math.min(slotted, landedBeans.size());
+				waitingBeans.moveFrom(landedBeans, moved);
+				for (; moved < slotted; moved ++) {
+					// Only when the slot counts were set from outside or restored
+					waitingBeans.add(Bean.withSkill(true, rand, 0));
+				}
+			} else {
+				waitingBeans.ensureCapacity(waitingBeans.size() + slotted + ring.length);
+				for (int i = 0; i < slots.length; i ++) {
+					for (int j = 0; j < slots[i]; j ++) {
+						// A skill bean always lands in the slot matching its skill level
+						Bean b = landedBeans.poll();
+						if (b == null) {
+							b = Bean.withSkill(false, rand, i);
+						} else {
+							b.isLuck = false;
+							b.right = i;
+						}
+						waitingBeans.add(b);
+					}
+				}
+			}
+			Arrays.fill(slots, 0);
+			for (int y = 0; y < ring.length; y ++) {
+				int i = ringIndex(y);
+				if (ring[i] == null) {
+					continue;
+				}
+				if (traceLevel >= TRACE_BEANS) {
+					trace.accept("Found bean at row = " + y);
+				}
+				// A skill bean has used up one right turn for each step right so far
+				Bean b = ring[i];
+				if (pooledBeans != null) {
+					int state = b.getState();
+					pooledBeans.add(state == Bean.LUCK_STATE ? state : state + ringX[i]);
+				} else {
+					if (!b.isLuck) {
+						b.right += ringX[i];
+					}
+					waitingBeans.add(b);
+				}
+				ring[i] = null;
+				ringX[i] = NO_BEAN_IN_YPOS;
 			}
+			if (traceLevel >= TRACE_SUMMARY) {
+				trace.accept("Waiting: " + getRemainingBeanCount());
+			}
+			for (BeanCounterListener l : listeners) {
+				l.machineRepeated();
+			}
+			insertWaitingBean();
+		} finally {
+			stateLock.unlockWrite(stamp);
 		}
-		System.out.println("Waiting: " + waitingBeans.size());
-		pegs[0] = waitingBeans.poll();
 	}
 
 	/**
@@ -209,40 +809,187 @@ public class BeanCounterLogic {
 	 *         means the machine is finished.
 	 */
 	public boolean advanceStep() {
-		boolean status = false;
-		for (int i = slots.length - 2; i >= 0; i --) {
-			int x = getInFlightBeanXPos(i);
-			if (x < 0) {
-				continue;
+		long stamp = stateLock.writeLock();
+		try {
+			boolean status = false;
+			int rows = ring.length;
+			// Let every bean fall, from the bottom row up
+			for (int y = rows - 1; y >= 0; y --) {
+				int i = ringIndex(y);
+				Bean b = ring[i];
+				if (b == null) {
+					continue;
+				}
+				status = true;
+				int x = ringX[i] + b.fall();
+				if (y == rows - 1) {
+					land(x);
+					keepLanded(b);
+					ring[i] = null;
+					ringX[i] = NO_BEAN_IN_YPOS;
+				} else {
+					ringX[i] = x;
+				}
 			}
-			int index = i * (i + 1) / 2 + x;
-			status = true;
-			Bean b = pegs[index];
-			pegs[index] = null;
-			int j = i + 1;
-			if (j > slots.length - 2) {
-				slots[x + b.fall()].add(b);
-				continue;
+			if (slots.length == 1) {
+				Bean polled = pollWaitingBean();
+				if (polled == null) {
+					return false;
+				}
+				for (BeanCounterListener l : listeners) {
+					l.beanInserted();
+				}
+				land(0);
+				keepLanded(polled);
+				return true;
 			}
-			int newIndex = j * (j + 1) / 2 + x;
-			newIndex += b.fall();
-			pegs[newIndex] = b;
+			// Moving head back shifts every row down by one. The old bottom row, now
+			// empty, becomes the top row.
+			head = head == 0 ? rows - 1 : head - 1;
+			insertWaitingBean();
+			return status;
+		} finally {
+			stateLock.unlockWrite(stamp);
 		}
-		if (slots.length == 1) {
-			Bean polled = waitingBeans.poll();
-			if (polled == null) {
-				return false;
+	}
+
+	/**
+	 * Runs the experiment to the end without going through the intermediate peg
+	 * states. The final slot counts follow the same distribution as repeatedly
+	 * calling advanceStep(): a luck bean takes all of its remaining falls from the
+	 * bits of random longs and a skill bean lands in the slot given by its skill
+	 * level. The waiting beans are dropped in chunks, and other threads can take
+	 * snapshots between chunks.
+	 */
+	public void runToCompletion() {
+		long stamp = stateLock.writeLock();
+		try {
+			int rows = ring.length;
+			for (int y = 0; y < rows; y ++) {
+				int i = ringIndex(y);
+				if (ring[i] == null) {
+					continue;
+				}
+				land(landingSlot(ring[i], ringX[i], rows - y));
+				keepLanded(ring[i]);
+				ring[i] = null;
+				ringX[i] = NO_BEAN_IN_YPOS;
 			}
-			slots[0].add(polled);
-			return true;
+		} finally {
+			stateLock.unlockWrite(stamp);
+		}
+		// Let go of the lock between chunks so snapshots and checkpoints can get in
+		boolean more = true;
+		while (more) {
+			stamp = stateLock.writeLock();
+			try {
+				int rows = ring.length;
+				for (int n = 0; n < COMPLETION_CHUNK_SIZE; n ++) {
+					int slot;
+					Bean b = waitingBeans.poll();
+					if (b != null) {
+						tookWaitingBean(capture == null ? 0 : b.getState());
+						slot = landingSlot(b, 0, rows);
+						keepLanded(b);
+					} else if (pooledBeanCount() > 0) {
+						// Pooled beans are never unpacked into objects
+						int state = pooledBeans.poll();
+						tookWaitingBean(state);
+						slot = landingSlot(state, 0, rows);
+					} else {
+						more = false;
+						break;
+					}
+					for (BeanCounterListener l : listeners) {
+						l.beanInserted();
+					}
+					land(slot);
+				}
+			} finally {
+				stateLock.unlockWrite(stamp);
+			}
+		}
+	}
+
+	/**
+	 * Calculates the slot a bean ends up in without moving it through the pegs.
+	 * 
+	 * @param b        the bean
+	 * @param x        the current x-coordinate of the bean
+	 * @param pegsLeft the number of pegs the bean still has to go through
+	 * @return the index of the slot the bean lands in
+	 */
+	private int landingSlot(Bean b, int x, int pegsLeft) {
+		return landingSlot(b.isLuck ? Bean.LUCK_STATE : b.right, x, pegsLeft);
+	}
+
+	/**
+	 * Calculates the slot a packed bean ends up in without moving it through the
+	 * pegs.
+	 * 
+	 * @param state    the state of the bean, as returned by Bean.getState()
+	 * @param x        the current x-coordinate of the bean
+	 * @param pegsLeft the number of pegs the bean still has to go through
+	 * @return the index of the slot the bean lands in
+	 */
+	private int landingSlot(int state, int x, int pegsLeft) {
+		if (state != Bean.LUCK_STATE) {
+			return x + Math.min(state, pegsLeft);
 		}
-		pegs[0] = waitingBeans.poll();
-		return status;
+		return x + luckFalls(rand, pegsLeft);
+	}
+
+	/**
+	 * Counts how many times a luck bean falls right over the given number of pegs.
+	 * Each bit of a random long is one 50/50 left or right choice, so a single
+	 * draw covers up to 64 pegs.
+	 * 
+	 * @param rand the random number generator
+	 * @param pegs the number of pegs the bean goes through
+	 * @return the number of times the bean fell right
+	 */
+	static int luckFalls(Random rand, int pegs) {
+		int rights = 0;
+		for (; pegs >= Long.SIZE; pegs -= Long.SIZE) {
+			rights += Long.bitCount(rand.nextLong());
+		}
+		if (pegs > 0) {
+			rights += Long.bitCount(rand.nextLong() & ((1L << pegs) - 1));
+		}
+		return rights;
+	}
+
+	/**
+	 * Displays the per-slot statistics of a batch of trials, followed by a
+	 * chi-square goodness-of-fit test against the binomial distribution.
+	 * 
+	 * @param stats     the aggregated statistics
+	 * @param slotCount the number of slots in the machine
+	 */
+	private static void showTrialStatistics(TrialStatistics stats, int slotCount) {
+		System.out.println("Slot bean count statistics over " + stats.getTrialCount() + " trials:");
+		System.out.println("slot mean variance min max");
+		for (int i = 0; i < slotCount; i++) {
+			System.out.println(String.format("%d %.4f %.4f %d %d", i, stats.getMean(i), stats.getVariance(i),
+					stats.getMin(i), stats.getMax(i)));
+		}
+		double[] probs = SampledBeanCounter.slotProbabilities(slotCount);
+		double chi = stats.getChiSquare(probs);
+		int df = stats.getDegreesOfFreedom(probs);
+		System.out.println(String.format("Chi-square = %.4f (df = %d, p = %.4f)", chi, df,
+				TrialStatistics.chiSquarePValue(chi, df)));
 	}
 
 	public static void showUsage() {
-		System.out.println("Usage: java BeanCounterLogic <number of beans> <luck | skill>");
+		System.out.println("Usage: java BeanCounterLogic <number of beans> <luck | skill> [options]");
 		System.out.println("Example: java BeanCounterLogic 400 luck");
+		System.out.println("Options:");
+		System.out.println("  --sampled   draw luck mode slot counts statistically instead of dropping each bean");
+		System.out.println("  --seed <n>  seed the random number generator to make the run reproducible");
+		System.out.println("  --parallel <shards>  split the beans into shards that run on separate cores");
+		System.out.println("  --trials <k>  run k independent experiments and show per-slot statistics");
+		System.out.println("  --slots <n>  number of slots in the machine (default 10)");
+		System.out.println("  --pool <file>  keep the waiting beans packed in a memory-mapped scratch file");
 	}
 
 	/**
@@ -253,7 +1000,7 @@ public class BeanCounterLogic {
 	 * for a small number of beans and slots.
 	 * 
 	 * @param args args[0] is an integer bean count, args[1] is a string which is
-	 *             either luck or skill.
+	 *             either luck or skill. Options may follow (see showUsage).
 	 */
 	public static void main(String[] args) {
 		boolean luck;
@@ -267,11 +1014,13 @@ public class BeanCounterLogic {
 			beanCount = Verify.getInt(0, 3);
 			slotCount = Verify.getInt(1, 5);
 			// Create the internal logic
-			BeanCounterLogic logic = new BeanCounterLogic(slotCount);
+			// Share one java.util.Random, whose nextInt JPF knows how to enumerate
+			Random rand = new Random();
+			BeanCounterLogic logic = new BeanCounterLogic(slotCount, rand);
 			// Create the beans (in luck mode)
 			Bean[] beans = new Bean[beanCount];
 			for (int i = 0; i < beanCount; i++) {
-				beans[i] = new Bean(true, new Random());
+				beans[i] = new Bean(true, rand);
 			}
 			// Initialize the logic with the beans
 			logic.reset(beans);
@@ -291,13 +1040,13 @@ public class BeanCounterLogic {
 				// TODO: Check invariant property: the sum of remaining, in-flight, and in-slot
 				// beans always have to be equal to beanCount
 				int count = logic.waitingBeans.size();
-				for (int i = 0; i < logic.pegs.length; i ++) {
-					if (logic.pegs[i] != null) {
+				for (int yPos = 0; yPos < slotCount; yPos++) {
+					if (logic.getInFlightBean(yPos) != null) {
 						count++;
 					}
 				}
 				for (int i = 0; i < logic.slots.length; i ++) {
-					count += logic.slots[i].size();
+					count += logic.slots[i];
 				}
 				assert count == beanCount;
 				
@@ -308,12 +1057,12 @@ public class BeanCounterLogic {
 			// 3. The number of in-slot beans should be equal to beanCount.
 			int inSlotCount = 0;
 			for (int i = 0; i < logic.slots.length; i ++) {
-				inSlotCount += logic.slots[i].size();
+				inSlotCount += logic.slots[i];
 			}
 			assert inSlotCount == beanCount;
 			int remainingCount = 0;
-			for (int i = 0; i < logic.pegs.length; i ++) {
-				if (logic.pegs[i] != null) {
+			for (int yPos = 0; yPos < slotCount; yPos++) {
+				if (logic.getInFlightBean(yPos) != null) {
 					remainingCount++;
 				}
 			}
@@ -322,7 +1071,7 @@ public class BeanCounterLogic {
 			return;
 		}
 
-		if (args.length != 2) {
+		if (args.length < 2) {
 			showUsage();
 			return;
 		}
@@ -346,29 +1095,119 @@ public class BeanCounterLogic {
 			showUsage();
 			return;
 		}
-		
-		slotCount = 10;
 
-		// Create the internal logic
-		BeanCounterLogic logic = new BeanCounterLogic(slotCount);
-		// Create the beans (in luck mode)
-		Bean[] beans = new Bean[beanCount];
-		for (int i = 0; i < beanCount; i++) {
-			beans[i] = new Bean(luck, new Random());
+		boolean sampled = false;
+		int shardCount = 0;
+		int trialCount = 0;
+		String poolFile = null;
+		slotCount = Bean.DEFAULT_SLOT_COUNT;
+		SplitMixRandom rand = new SplitMixRandom();
+		for (int i = 2; i < args.length; i++) {
+			if (args[i].equals("--sampled")) {
+				sampled = true;
+			} else if (args[i].equals("--seed") && i + 1 < args.length) {
+				try {
+					rand = new SplitMixRandom(Long.parseLong(args[++i]));
+				} catch (NumberFormatException ne) {
+					showUsage();
+					return;
+				}
+			} else if (args[i].equals("--parallel") && i + 1 < args.length) {
+				try {
+					shardCount = Integer.parseInt(args[++i]);
+				} catch (NumberFormatException ne) {
+					showUsage();
+					return;
+				}
+				if (shardCount <= 0) {
+					showUsage();
+					return;
+				}
+			} else if (args[i].equals("--slots") && i + 1 < args.length) {
+				try {
+					slotCount = Integer.parseInt(args[++i]);
+				} catch (NumberFormatException ne) {
+					showUsage();
+					return;
+				}
+				if (slotCount <= 0) {
+					showUsage();
+					return;
+				}
+			} else if (args[i].equals("--trials") && i + 1 < args.length) {
+				try {
+					trialCount = Integer.parseInt(args[++i]);
+				} catch (NumberFormatException ne) {
+					showUsage();
+					return;
+				}
+				if (trialCount <= 0) {
+					showUsage();
+					return;
+				}
+			} else if (args[i].equals("--pool") && i + 1 < args.length) {
+				poolFile = args[++i];
+			} else {
+				showUsage();
+				return;
+			}
 		}
-		// Initialize the logic with the beans
-		logic.reset(beans);
-					
-		// Perform the experiment
-		while (true) {
-			if (!logic.advanceStep()) {
-				break;
+		if (sampled && !luck) {
+			showUsage();
+			return;
+		}
+		if (poolFile != null && (sampled || shardCount > 0 || trialCount > 0)) {
+			showUsage();
+			return;
+		}
+
+		if (trialCount > 0) {
+			int workerCount = shardCount > 0 ? shardCount : MonteCarloBeanCounter.DEFAULT_WORKER_COUNT;
+			TrialStatistics stats = new MonteCarloBeanCounter(slotCount, workerCount, rand)
+					.run(trialCount, beanCount, luck, sampled);
+			showTrialStatistics(stats, slotCount);
+			return;
+		}
+
+		int[] slotCounts;
+		if (shardCount > 0) {
+			// Split the beans across cores and merge the slot counts
+			slotCounts = new ParallelBeanCounter(slotCount, shardCount, rand).run(beanCount, luck, sampled);
+		} else if (sampled) {
+			// Draw the slot counts directly without creating any beans
+			slotCounts = new SampledBeanCounter(slotCount, rand).sample(beanCount);
+		} else if (poolFile != null) {
+			BeanCounterLogic logic = new BeanCounterLogic(slotCount, rand);
+			// Stream the beans into the pool, so none of them is ever on the heap
+			try (PackedBeanPool pool = PackedBeanPool.mapped(slotCount, Paths.get(poolFile))) {
+				for (int i = 0; i < beanCount; i++) {
+					pool.add(Bean.randomState(luck, rand, slotCount));
+				}
+				logic.reset(pool);
+				logic.runToCompletion();
+			} catch (IOException ioe) {
+				System.err.println("Cannot use bean pool file " + poolFile + ": " + ioe.getMessage());
+				return;
+			}
+			slotCounts = logic.slots;
+		} else {
+			// Create the internal logic
+			BeanCounterLogic logic = new BeanCounterLogic(slotCount, rand);
+			// Create the beans, all sharing the one generator
+			Bean[] beans = new Bean[beanCount];
+			for (int i = 0; i < beanCount; i++) {
+				beans[i] = new Bean(luck, rand, slotCount);
 			}
+			// Initialize the logic with the beans
+			logic.reset(beans);
+			// Perform the experiment
+			logic.runToCompletion();
+			slotCounts = logic.slots;
 		}
 		// display experimental results
 		System.out.println("Slot bean counts:");
 		for (int i = 0; i < slotCount; i++) {
-			System.out.print(logic.getSlotBeanCount(i) + " ");
+			System.out.print(slotCounts[i] + " ");
 		}
 		System.out.println("");
 	}
@@ -8,9 +8,25 @@ import org.mockito.*;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
 
 public class BeanCounterLogicTest {
 
+	private static final String USAGE =
+			"Usage: java BeanCounterLogic <number of beans> <luck | skill> [options]"
+			+ "\nExample: java BeanCounterLogic 400 luck"
+			+ "\nOptions:"
+			+ "\n  --sampled   draw luck mode slot counts statistically instead of dropping each bean"
+			+ "\n  --seed <n>  seed the random number generator to make the run reproducible"
+			+ "\n  --parallel <shards>  split the beans into shards that run on separate cores"
+			+ "\n  --trials <k>  run k independent experiments and show per-slot statistics"
+			+ "\n  --slots <n>  number of slots in the machine (default 10)"
+			+ "\n  --pool <file>  keep the waiting beans packed in a memory-mapped scratch file\n";
+
 	BeanCounterLogic b;
 	private ByteArrayOutputStream out = new ByteArrayOutputStream();
 	private PrintStream oldOut;
@@ -28,7 +44,7 @@ public class BeanCounterLogicTest {
 	@Test
 	public void testConstructorBeanAtTop() {
 		b.reset(new Bean[]{Mockito.mock(Bean.class)});
-		assertNotNull(b.pegs[0]);
+		assertNotNull(b.getInFlightBean(0));
 	}
 
 	@Test
@@ -52,16 +68,22 @@ public class BeanCounterLogicTest {
 
 	@Test
 	public void testGetInFlightBeanXPosEnd() {
-		b.pegs[5] = Mockito.mock(Bean.class);
+		b.putInFlightBean(2, 2, Mockito.mock(Bean.class));
 		assertEquals(b.getInFlightBeanXPos(2), 2);
 	}
 
 	@Test
 	public void testGetInFlightBeanXPosMid() {
-		b.pegs[2] = Mockito.mock(Bean.class);
+		b.putInFlightBean(1, 1, Mockito.mock(Bean.class));
 		assertEquals(b.getInFlightBeanXPos(1), 1);
 	}
 	
+	@Test
+	public void testGetInFlightBeanXPosBelowPegs() {
+		b.reset(new Bean[]{Mockito.mock(Bean.class)});
+		assertEquals(b.getInFlightBeanXPos(3), BeanCounterLogic.NO_BEAN_IN_YPOS);
+	}
+
 	@Test
 	public void testGetSlotBeanCountEmpty() {
 		assertEquals(b.getSlotBeanCount(0), 0);
@@ -69,22 +91,16 @@ public class BeanCounterLogicTest {
 
 	@Test
 	public void testGetSlotBeanCountNonEmpty() {
-		b.slots[0].add(Mockito.mock(Bean.class));
+		b.slots[0]++;
 		assertEquals(b.getSlotBeanCount(0), 1);
 	}
 
 	@Test
 	public void testAverageSlotBeanCount() {
-		b.slots[0].add(Mockito.mock(Bean.class));
-		b.slots[1].add(Mockito.mock(Bean.class));
-		b.slots[1].add(Mockito.mock(Bean.class));
-		b.slots[2].add(Mockito.mock(Bean.class));
-		b.slots[2].add(Mockito.mock(Bean.class));
-		b.slots[2].add(Mockito.mock(Bean.class));
-		b.slots[3].add(Mockito.mock(Bean.class));
-		b.slots[3].add(Mockito.mock(Bean.class));
-		b.slots[3].add(Mockito.mock(Bean.class));
-		b.slots[3].add(Mockito.mock(Bean.class));
+		b.slots[0] = 1;
+		b.slots[1] = 2;
+		b.slots[2] = 3;
+		b.slots[3] = 4;
 		assertEquals(b.getAverageSlotBeanCount(), 2.5f, 0);
 	}
 
@@ -96,19 +112,19 @@ public class BeanCounterLogicTest {
 				Mockito.mock(Bean.class),
 				Mockito.mock(Bean.class)};
 		b.reset(array);
-		assertNotNull(b.pegs[0]);
+		assertNotNull(b.getInFlightBean(0));
 		assert b.waitingBeans.size() == 4;
 	}
 
 	@Test
-	public void testResetPegArrLengthCorrect() {
+	public void testResetRingLengthCorrect() {
 		Bean[] array = {Mockito.mock(Bean.class),
 				Mockito.mock(Bean.class),
 				Mockito.mock(Bean.class),
 				Mockito.mock(Bean.class),
 				Mockito.mock(Bean.class)};
 		b.reset(array);
-		assertEquals(b.pegs.length, 6);
+		assertEquals(b.ring.length, 3);
 	}
 
 	@Test
@@ -126,84 +142,298 @@ public class BeanCounterLogicTest {
 	public void testAdvanceStepFallLeftStart() {
 		Bean top = Mockito.mock(Bean.class);
 		Mockito.when(top.fall()).thenReturn(0);
-		b.pegs[0] = top;
+		b.putInFlightBean(0, 0, top);
 		b.advanceStep();
-		assertNotNull(b.pegs[1]);
-		assertNull(b.pegs[0]);
+		assertSame(b.getInFlightBean(1), top);
+		assertNull(b.getInFlightBean(0));
+		assertEquals(b.getInFlightBeanXPos(1), 0);
 	}
 
 	@Test
 	public void testAdvanceStepFallLeftMiddle() {
 		Bean top = Mockito.mock(Bean.class);
 		Mockito.when(top.fall()).thenReturn(0);
-		b.pegs[0] = null;
-		b.pegs[2] = top;
+		b.putInFlightBean(1, 1, top);
 		b.advanceStep();
-		assertNotNull(b.pegs[4]);
-		assertNull(b.pegs[2]);
+		assertSame(b.getInFlightBean(2), top);
+		assertEquals(b.getInFlightBeanXPos(2), 1);
+		assertNull(b.getInFlightBean(1));
 	}
 
 	@Test
 	public void testAdvanceStepFallLeftEnd() {
 		Bean top = Mockito.mock(Bean.class);
 		Mockito.when(top.fall()).thenReturn(0);
-		b.pegs[0] = null;
-		b.pegs[4] = top;
+		b.putInFlightBean(2, 1, top);
 		b.advanceStep();
-		assertEquals(b.slots[1].size(), 1);
-		assertNull(b.pegs[4]);
+		assertEquals(b.slots[1], 1);
+		assertNull(b.getInFlightBean(2));
 	}
 
 	@Test
 	public void testAdvanceStepFallRightStart() {
 		Bean top = Mockito.mock(Bean.class);
 		Mockito.when(top.fall()).thenReturn(1);
-		b.pegs[0] = top;
+		b.putInFlightBean(0, 0, top);
 		b.advanceStep();
-		assertNotNull(b.pegs[2]);
-		assertNull(b.pegs[0]);
+		assertSame(b.getInFlightBean(1), top);
+		assertEquals(b.getInFlightBeanXPos(1), 1);
+		assertNull(b.getInFlightBean(0));
 	}
 
 	@Test
 	public void testAdvanceStepFallRightMiddle() {
 		Bean top = Mockito.mock(Bean.class);
 		Mockito.when(top.fall()).thenReturn(1);
-		b.pegs[0] = null;
-		b.pegs[2] = top;
+		b.putInFlightBean(1, 1, top);
 		b.advanceStep();
-		assertNotNull(b.pegs[5]);
-		assertNull(b.pegs[2]);
+		assertSame(b.getInFlightBean(2), top);
+		assertEquals(b.getInFlightBeanXPos(2), 2);
+		assertNull(b.getInFlightBean(1));
 	}
 
 	@Test
 	public void testAdvanceStepFallRightEnd() {
 		Bean top = Mockito.mock(Bean.class);
 		Mockito.when(top.fall()).thenReturn(1);
-		b.pegs[0] = null;
-		b.pegs[4] = top;
+		b.putInFlightBean(2, 1, top);
 		b.advanceStep();
-		assertEquals(b.slots[2].size(), 1);
-		assertNull(b.pegs[4]);
+		assertEquals(b.slots[2], 1);
+		assertNull(b.getInFlightBean(2));
 	}
 
 	@Test
-	public void testUpperHalfEvenlySplitSlots() {
+	public void testAdvanceStepWrapsRing() {
+		Bean[] beans = new Bean[5];
+		for (int i = 0; i < 5; i ++) {
+			beans[i] = Mockito.mock(Bean.class);
+			Mockito.when(beans[i].fall()).thenReturn(1);
+		}
+		b.reset(beans);
+		for (int i = 0; i < 4; i ++) {
+			b.advanceStep();
+		}
+		assertSame(b.getInFlightBean(0), beans[4]);
+		assertSame(b.getInFlightBean(1), beans[3]);
+		assertSame(b.getInFlightBean(2), beans[2]);
+		assertEquals(b.getInFlightBeanXPos(2), 2);
+		assertEquals(b.slots[3], 2);
+	}
+
+	@Test
+	public void testRunToCompletionMatchesStepping() {
+		BeanCounterLogic stepped = new BeanCounterLogic(4);
+		Bean[] steppedBeans = new Bean[20];
+		Bean[] completedBeans = new Bean[20];
+		for (int i = 0; i < 20; i ++) {
+			steppedBeans[i] = new Bean(false, new Random(i));
+			completedBeans[i] = new Bean(false, new Random(i));
+		}
+		stepped.reset(steppedBeans);
+		b.reset(completedBeans);
+		stepped.advanceStep();
+		b.advanceStep();
+		while (stepped.advanceStep()) {
+			// Keep stepping until the machine is finished
+		}
+		b.runToCompletion();
+		assertArrayEquals(stepped.slots, b.slots);
+		assertEquals(b.getRemainingBeanCount(), 0);
+		assertEquals(b.getInFlightBeanXPos(0), BeanCounterLogic.NO_BEAN_IN_YPOS);
+	}
+
+	@Test
+	public void testRunToCompletionSkillUsesRight() {
 		Bean bean = Mockito.mock(Bean.class);
-		b.slots[1] = new ArrayList<>(Arrays.asList(bean, bean, bean));
-		b.slots[3] = new ArrayList<>(Arrays.asList(bean, bean, bean));
+		bean.right = 2;
+		b.reset(new Bean[]{bean});
+		b.runToCompletion();
+		assertEquals(b.slots[2], 1);
+	}
+
+	@Test
+	public void testRunToCompletionLuckCountsAllBeans() {
+		Bean[] beans = new Bean[20];
+		for (int i = 0; i < 20; i ++) {
+			beans[i] = new Bean(true, new Random(i));
+		}
+		b.reset(beans);
+		b.advanceStep();
+		b.runToCompletion();
+		int total = 0;
+		for (int i = 0; i < b.slots.length; i ++) {
+			total += b.slots[i];
+		}
+		assertEquals(total, 20);
+	}
+
+	@Test
+	public void testLuckFallsMasksUnusedBits() {
+		Random rand = Mockito.mock(Random.class);
+		Mockito.when(rand.nextLong()).thenReturn(0xFBL);
+		assertEquals(BeanCounterLogic.luckFalls(rand, 3), 2);
+	}
+
+	@Test
+	public void testLuckFallsSpansWords() {
+		Random rand = Mockito.mock(Random.class);
+		Mockito.when(rand.nextLong()).thenReturn(-1L);
+		assertEquals(BeanCounterLogic.luckFalls(rand, 70), 70);
+	}
+
+	@Test
+	public void testUpperHalfEvenlySplitSlots() {
+		b.slots[1] = 3;
+		b.slots[3] = 3;
 		b.upperHalf();
-		assertEquals(b.slots[1].size(), 0);
-		assertEquals(b.slots[3].size(), 3);
+		assertEquals(b.slots[1], 0);
+		assertEquals(b.slots[3], 3);
 	}
 
 	@Test
 	public void testLowerHalfEvenlySplitSlots() {
-		Bean bean = Mockito.mock(Bean.class);
-		b.slots[1] = new ArrayList<>(Arrays.asList(bean, bean, bean));
-		b.slots[3] = new ArrayList<>(Arrays.asList(bean, bean, bean));
+		b.slots[1] = 3;
+		b.slots[3] = 3;
 		b.lowerHalf();
-		assertEquals(b.slots[3].size(), 0);
-		assertEquals(b.slots[1].size(), 3);
+		assertEquals(b.slots[3], 0);
+		assertEquals(b.slots[1], 3);
+	}
+
+	@Test
+	public void testUpperHalfCutsInsideSlot() {
+		b.slots[1] = 2;
+		b.slots[2] = 5;
+		b.slots[3] = 1;
+		b.upperHalf();
+		assertArrayEquals(new int[]{0, 0, 3, 1}, b.slots);
+	}
+
+	@Test
+	public void testLowerHalfCutsInsideSlot() {
+		b.slots[0] = 1;
+		b.slots[1] = 5;
+		b.slots[3] = 3;
+		b.lowerHalf();
+		assertArrayEquals(new int[]{1, 4, 0, 0}, b.slots);
+	}
+
+	@Test
+	public void testSnapshotCopiesState() {
+		Bean top = Mockito.mock(Bean.class);
+		Mockito.when(top.fall()).thenReturn(1);
+		b.putInFlightBean(1, 1, top);
+		b.slots[2] = 5;
+		BeanCounterSnapshot snapshot = b.snapshot();
+		b.advanceStep();
+		assertEquals(snapshot.getInFlightBeanXPos(1), 1);
+		assertEquals(snapshot.getInFlightBeanXPos(2), BeanCounterLogic.NO_BEAN_IN_YPOS);
+		assertEquals(snapshot.getSlotBeanCount(2), 5);
+		assertEquals(snapshot.getSlottedBeanCount(), 5);
+		assertEquals(snapshot.getRemainingBeanCount(), 0);
+	}
+
+	@Test
+	public void testSnapshotWhileSteppingCountsAllBeans() throws InterruptedException {
+		BeanCounterLogic logic = new BeanCounterLogic(10, new SplitMixRandom(1));
+		Bean[] beans = new Bean[20000];
+		for (int i = 0; i < beans.length; i ++) {
+			beans[i] = new Bean(true, new SplitMixRandom(i), 10);
+		}
+		logic.reset(beans);
+		Thread writer = new Thread(() -> {
+			while (logic.advanceStep()) {
+				// Keep stepping until the machine is finished
+			}
+		});
+		writer.start();
+		do {
+			BeanCounterSnapshot snapshot = logic.snapshot();
+			long count = snapshot.getRemainingBeanCount() + snapshot.getSlottedBeanCount();
+			for (int y = 0; y < 10; y ++) {
+				if (snapshot.getInFlightBeanXPos(y) != BeanCounterLogic.NO_BEAN_IN_YPOS) {
+					count++;
+				}
+			}
+			assertEquals(count, beans.length);
+		} while (writer.isAlive());
+		writer.join();
+		assertEquals(logic.snapshot().getSlottedBeanCount(), beans.length);
+	}
+
+	@Test
+	public void testListenerSeesEveryBean() {
+		BeanCounterListener l = Mockito.mock(BeanCounterListener.class);
+		b.addListener(l);
+		Bean[] beans = new Bean[7];
+		for (int i = 0; i < 7; i ++) {
+			beans[i] = new Bean(true, new Random(i), 4);
+		}
+		b.reset(beans);
+		b.advanceStep();
+		b.runToCompletion();
+		Mockito.verify(l).machineReset();
+		Mockito.verify(l, Mockito.times(7)).beanInserted();
+		Mockito.verify(l, Mockito.times(7)).beanLanded(Mockito.anyInt());
+	}
+
+	@Test
+	public void testListenerSeesLandingSlot() {
+		BeanCounterListener l = Mockito.mock(BeanCounterListener.class);
+		b.addListener(l);
+		Bean top = Mockito.mock(Bean.class);
+		Mockito.when(top.fall()).thenReturn(1);
+		b.putInFlightBean(2, 1, top);
+		b.advanceStep();
+		Mockito.verify(l).beanLanded(2);
+	}
+
+	@Test
+	public void testListenerSeesHalvesAndRepeat() {
+		BeanCounterListener l = Mockito.mock(BeanCounterListener.class);
+		b.addListener(l);
+		b.slots[1] = 2;
+		b.slots[2] = 5;
+		b.slots[3] = 1;
+		b.upperHalf();
+		Mockito.verify(l).beansRemoved(1, 2);
+		Mockito.verify(l).beansRemoved(2, 2);
+		Mockito.verify(l, Mockito.never()).beansRemoved(Mockito.eq(3), Mockito.anyInt());
+		b.repeat();
+		Mockito.verify(l).machineRepeated();
+	}
+
+	@Test
+	public void testRemovedListenerHearsNothing() {
+		BeanCounterListener l = Mockito.mock(BeanCounterListener.class);
+		b.addListener(l);
+		b.removeListener(l);
+		b.reset(new Bean[]{new Bean(true, new Random(), 4)});
+		Mockito.verifyZeroInteractions(l);
+	}
+
+	@Test
+	public void testStatisticsFollowRunAndHalves() {
+		BeanCounterLogic logic = new BeanCounterLogic(10, new SplitMixRandom(5));
+		Bean[] beans = new Bean[1001];
+		for (int i = 0; i < beans.length; i ++) {
+			beans[i] = new Bean(true, new SplitMixRandom(i), 10);
+		}
+		logic.reset(beans);
+		logic.runToCompletion();
+		SlotStatistics stats = logic.getStatistics();
+		assertEquals(stats.getCount(), 1001);
+		assertEquals(stats.getMean(), 4.5, 0.2);
+		assertEquals(stats.getStandardDeviation(), 1.5, 0.2);
+		logic.lowerHalf();
+		double mean = 0.0;
+		for (int i = 0; i < 10; i ++) {
+			mean += (double) i * logic.getSlotBeanCount(i);
+		}
+		assertEquals(stats.getCount(), 501);
+		assertEquals(stats.getMean(), mean / 501, 1e-9);
+		assertEquals(logic.snapshot().getStatistics().getMedian(), stats.getMedian());
+		logic.repeat();
+		assertEquals(stats.getCount(), 0);
 	}
 
 	/**
@@ -224,8 +454,7 @@ public class BeanCounterLogicTest {
 		BeanCounterLogic.main(new String[]{"a"});
 		try {
 			assertEquals(out.toString("UTF-8"),
-                    "Usage: java BeanCounterLogic <number of beans> <luck | skill>"
-                            + "\nExample: java BeanCounterLogic 400 luck\n");
+                    USAGE);
 		} catch (UnsupportedEncodingException error) {
 			error.printStackTrace();
 		}
@@ -236,8 +465,7 @@ public class BeanCounterLogicTest {
 		BeanCounterLogic.main(new String[]{"-1", "luck"});
 		try {
 			assertEquals(out.toString("UTF-8"),
-                    "Usage: java BeanCounterLogic <number of beans> <luck | skill>"
-                            + "\nExample: java BeanCounterLogic 400 luck\n");
+                    USAGE);
 		} catch (UnsupportedEncodingException error) {
 			error.printStackTrace();
 		}
@@ -254,6 +482,120 @@ public class BeanCounterLogicTest {
 		}
 	}
 
+	@Test
+	public void testMainSampled() {
+		BeanCounterLogic.main(new String[]{"1000000000", "luck", "--sampled"});
+		try {
+			String[] lines = out.toString("UTF-8").split("\n");
+			assertEquals(lines[0], "Slot bean counts:");
+			long total = 0;
+			for (String count : lines[1].split(" ")) {
+				total += Long.parseLong(count);
+			}
+			assertEquals(total, 1000000000L);
+		} catch (UnsupportedEncodingException error) {
+			error.printStackTrace();
+		}
+	}
+
+	@Test
+	public void testMainSampledSkill() {
+		BeanCounterLogic.main(new String[]{"100", "skill", "--sampled"});
+		try {
+			assertEquals(out.toString("UTF-8"), USAGE);
+		} catch (UnsupportedEncodingException error) {
+			error.printStackTrace();
+		}
+	}
+
+	@Test
+	public void testMainSeedIsReproducible() {
+		try {
+			BeanCounterLogic.main(new String[]{"1000", "luck", "--seed", "42"});
+			String first = out.toString("UTF-8");
+			out.reset();
+			BeanCounterLogic.main(new String[]{"1000", "luck", "--seed", "42"});
+			assertEquals(out.toString("UTF-8"), first);
+		} catch (UnsupportedEncodingException error) {
+			error.printStackTrace();
+		}
+	}
+
+	@Test
+	public void testMainBadSeed() {
+		BeanCounterLogic.main(new String[]{"100", "luck", "--seed", "x"});
+		try {
+			assertEquals(out.toString("UTF-8"), USAGE);
+		} catch (UnsupportedEncodingException error) {
+			error.printStackTrace();
+		}
+	}
+
+	@Test
+	public void testMainParallel() {
+		BeanCounterLogic.main(new String[]{"1000", "skill", "--parallel", "4"});
+		try {
+			assertTrue(out.toString("UTF-8").matches(
+                    "Slot bean counts:\n\\d+ \\d+ \\d+ \\d+ \\d+ \\d+ \\d+ \\d+ \\d+ \\d+ \n"));
+		} catch (UnsupportedEncodingException error) {
+			error.printStackTrace();
+		}
+	}
+
+	@Test
+	public void testMainParallelNoShards() {
+		BeanCounterLogic.main(new String[]{"100", "luck", "--parallel", "0"});
+		try {
+			assertEquals(out.toString("UTF-8"), USAGE);
+		} catch (UnsupportedEncodingException error) {
+			error.printStackTrace();
+		}
+	}
+
+	@Test
+	public void testMainTrials() {
+		BeanCounterLogic.main(new String[]{"1000", "luck", "--trials", "20", "--seed", "1"});
+		try {
+			String[] lines = out.toString("UTF-8").split("\n");
+			assertEquals(lines[0], "Slot bean count statistics over 20 trials:");
+			assertEquals(lines.length, 13);
+			assertTrue(lines[12].startsWith("Chi-square = "));
+		} catch (UnsupportedEncodingException error) {
+			error.printStackTrace();
+		}
+	}
+
+	@Test
+	public void testMainTrialsDoNotDependOnCores() throws UnsupportedEncodingException {
+		BeanCounterLogic.main(new String[]{"1000", "skill", "--trials", "20", "--seed", "1"});
+		String byDefault = out.toString("UTF-8");
+		out.reset();
+		BeanCounterLogic.main(new String[]{"1000", "skill", "--trials", "20", "--seed", "1", "--parallel",
+			String.valueOf(MonteCarloBeanCounter.DEFAULT_WORKER_COUNT)});
+		assertEquals(out.toString("UTF-8"), byDefault);
+	}
+
+	@Test
+	public void testMainSlots() {
+		BeanCounterLogic.main(new String[]{"100", "skill", "--slots", "3"});
+		try {
+			assertTrue(out.toString("UTF-8").matches("Slot bean counts:\n\\d+ \\d+ \\d+ \n"));
+		} catch (UnsupportedEncodingException error) {
+			error.printStackTrace();
+		}
+	}
+
+	@Test
+	public void testMainLargeBoard() {
+		BeanCounterLogic.main(new String[]{"10", "luck", "--slots", "100000"});
+		try {
+			String[] lines = out.toString("UTF-8").split("\n");
+			assertEquals(lines[1].split(" ").length, 100000);
+		} catch (UnsupportedEncodingException error) {
+			error.printStackTrace();
+		}
+	}
+
 	@Test
 	public void testStupidTestModeWhichIsCoveredByModelChecking() {
 		BeanCounterLogic.main(new String[]{"test"});
@@ -267,14 +609,155 @@ public class BeanCounterLogicTest {
 	@Test
 	public void testRepeat() {
 		System.setOut(oldOut);
-		b.pegs[1] = Mockito.mock(Bean.class);
-		b.slots[0].add(Mockito.mock(Bean.class));
+		b.putInFlightBean(1, 0, Mockito.mock(Bean.class));
+		b.slots[0]++;
 		b.repeat();
-		assert b.pegs[1] == null;
-		assert b.slots[0].isEmpty();
+		assert b.getInFlightBean(1) == null;
+		assert b.slots[0] == 0;
 		assert b.waitingBeans.size() == 1;
 	}
 
+	@Test
+	public void testRepeatRecreatesSkillFromSlot() {
+		System.setOut(oldOut);
+		b.slots[2] = 1;
+		b.repeat();
+		assertEquals(b.getInFlightBean(0).right, 2);
+		assertFalse(b.getInFlightBean(0).isLuck);
+	}
+
+	@Test
+	public void testEmptyResetDoesNotKeepPreviousMode() {
+		Bean[] beans = {new Bean(true, new Random(), 4), new Bean(true, new Random(), 4)};
+		b.reset(beans);
+		b.reset(new Bean[0]);
+		b.slots[3] = 1;
+		b.repeat();
+		assertFalse(b.getInFlightBean(0).isLuck);
+		assertEquals(b.getInFlightBean(0).right, 3);
+	}
+
+	@Test
+	public void testRepeatReusesLandedBeans() {
+		System.setOut(oldOut);
+		Bean bean = new Bean(false, new Random(), 4);
+		bean.right = 2;
+		b.reset(new Bean[]{bean});
+		while (b.advanceStep()) {
+			// Keep stepping until the bean lands
+		}
+		b.repeat();
+		assertSame(b.getInFlightBean(0), bean);
+		assertEquals(bean.right, 2);
+		assertFalse(bean.isLuck);
+	}
+
+	@Test
+	public void testRepeatAllocatesNoBeansAfterWarmUp() {
+		Random rand = new Random(3);
+		Bean[] beans = new Bean[50];
+		for (int i = 0; i < beans.length; i ++) {
+			beans[i] = new Bean(false, rand, 4);
+		}
+		b.reset(beans);
+		for (int round = 0; round < 2; round ++) {
+			b.runToCompletion();
+			b.repeat();
+			Set<Bean> seen = Collections.newSetFromMap(new IdentityHashMap<Bean, Boolean>());
+			seen.add(b.getInFlightBean(0));
+			for (int i = 0; i < b.waitingBeans.size(); i ++) {
+				seen.add(b.waitingBeans.get(i));
+			}
+			assertEquals(seen.size(), beans.length);
+			for (Bean bean : beans) {
+				assertTrue(seen.contains(bean));
+			}
+		}
+	}
+
+	@Test
+	public void testRepeatKeepsSkillOfInFlightBean() {
+		Bean bean = new Bean(false, new Random(), 4);
+		bean.right = 2;
+		b.reset(new Bean[]{bean});
+		b.advanceStep();
+		b.repeat();
+		b.runToCompletion();
+		assertEquals(b.slots[2], 1);
+	}
+
+	@Test
+	public void testResetLeavesTheCallersPoolOpen() throws IOException {
+		PackedBeanPool pool = PackedBeanPool.offHeap(4);
+		pool.add(2, 5);
+		b.reset(pool);
+		b.reset(PackedBeanPool.offHeap(4));
+		assertTrue(pool.isOpen());
+		b.reset(new Bean[0]);
+		assertTrue(pool.isOpen());
+		pool.close();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testResetRejectsClosedPool() throws IOException {
+		PackedBeanPool pool = PackedBeanPool.offHeap(4);
+		pool.close();
+		b.reset(pool);
+	}
+
+	@Test
+	public void testPooledRepeatKeepsSkillOfInFlightBean() {
+		PackedBeanPool pool = PackedBeanPool.offHeap(4);
+		pool.add(2);
+		b.reset(pool);
+		b.advanceStep();
+		b.repeat();
+		b.runToCompletion();
+		assertEquals(b.slots[2], 1);
+	}
+
+	@Test
+	public void testRepeatPrintsNothingByDefault() throws UnsupportedEncodingException {
+		b.putInFlightBean(1, 0, Mockito.mock(Bean.class));
+		b.slots[2] = 3;
+		b.repeat();
+		assertEquals(out.toString("UTF-8"), "");
+	}
+
+	@Test
+	public void testRepeatTraceSummary() {
+		List<String> messages = new ArrayList<String>();
+		b.setTrace(BeanCounterLogic.TRACE_SUMMARY, messages::add);
+		b.slots[2] = 3;
+		b.repeat();
+		assertEquals(messages, Arrays.asList("Waiting: 3"));
+	}
+
+	@Test
+	public void testRepeatTraceBeans() {
+		List<String> messages = new ArrayList<String>();
+		b.setTrace(BeanCounterLogic.TRACE_BEANS, messages::add);
+		b.putInFlightBean(1, 0, Mockito.mock(Bean.class));
+		b.slots[2] = 3;
+		b.repeat();
+		assertEquals(messages, Arrays.asList("Found 3 beans at slot = 2",
+				"Found bean at row = 1", "Waiting: 4"));
+	}
+
+	@Test
+	public void testRepeatMovesLandedLuckBeans() {
+		Bean[] beans = new Bean[6];
+		for (int i = 0; i < 6; i ++) {
+			beans[i] = new Bean(true, new Random(i), 4);
+		}
+		b.reset(beans);
+		b.runToCompletion();
+		b.repeat();
+		assertEquals(b.getRemainingBeanCount(), 5);
+		assertNotNull(b.getInFlightBean(0));
+		assertEquals(b.getHalf(), 0);
+	}
+
 	@Test
 	public void testRepeatAllWaiting() {
 		System.setOut(oldOut);
@@ -284,6 +767,64 @@ public class BeanCounterLogicTest {
 		assert b.waitingBeans.size() == 1;
 	}
 
+	@Test
+	public void testPooledRunMatchesBeanRun() {
+		SplitMixRandom pooledRand = new SplitMixRandom(7);
+		SplitMixRandom beanRand = new SplitMixRandom(7);
+		BeanCounterLogic pooled = new BeanCounterLogic(4, pooledRand);
+		BeanCounterLogic unpooled = new BeanCounterLogic(4, beanRand);
+		PackedBeanPool pool = PackedBeanPool.offHeap(4);
+		Bean[] beans = new Bean[200];
+		for (int i = 0; i < 200; i ++) {
+			pool.add(Bean.randomState(false, pooledRand, 4));
+			beans[i] = new Bean(false, beanRand, 4);
+		}
+		pooled.reset(pool);
+		unpooled.reset(beans);
+		assertEquals(pooled.getRemainingBeanCount(), 199);
+		for (int i = 0; i < 10; i ++) {
+			pooled.advanceStep();
+			unpooled.advanceStep();
+		}
+		pooled.runToCompletion();
+		unpooled.runToCompletion();
+		assertArrayEquals(pooled.slots, unpooled.slots);
+		assertEquals(pooled.getRemainingBeanCount(), 0);
+	}
+
+	@Test
+	public void testPooledRepeatPutsBeansBackInPool() {
+		PackedBeanPool pool = PackedBeanPool.offHeap(4);
+		pool.add(Bean.LUCK_STATE, 50);
+		b.reset(pool);
+		b.advanceStep();
+		b.advanceStep();
+		b.runToCompletion();
+		b.repeat();
+		assertEquals(pool.size(), 49);
+		assertEquals(b.waitingBeans.size(), 0);
+		assertNotNull(b.getInFlightBean(0));
+		b.runToCompletion();
+		assertEquals(b.getHalf(), 25);
+	}
+
+	@Test
+	public void testPooledSkillRepeatKeepsSlots() {
+		PackedBeanPool pool = PackedBeanPool.offHeap(4);
+		pool.add(1, 10);
+		pool.add(3, 6);
+		b.reset(pool);
+		b.runToCompletion();
+		b.repeat();
+		b.runToCompletion();
+		assertArrayEquals(b.slots, new int[]{0, 10, 0, 6});
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPooledResetRejectsOtherSlotCount() {
+		b.reset(PackedBeanPool.offHeap(5));
+	}
+
 	@After
 	public void tearDown() {
 		System.setOut(oldOut); 
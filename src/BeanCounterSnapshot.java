@@ -0,0 +1,76 @@
+/**
+ * BeanCounterSnapshot: An immutable copy of the state of a BeanCounterLogic at
+ * one moment, taken with BeanCounterLogic.snapshot(). It can be read from any
+ * thread, however long after the machine has moved on.
+ */
+public class BeanCounterSnapshot {
+	private final int[] slots;			// Number of beans in each slot
+	private final int[] inFlightX;		// X-coordinate of the in-flight bean in each row
+	private final int remaining;		// Number of beans waiting to be inserted
+	private final long slotted;			// Number of beans in all the slots
+	private final SlotStatistics statistics;	// Distribution of the landing slots
+
+	/**
+	 * Constructor - wraps the copied state. The arrays are not copied again, so
+	 * they must not be changed afterwards.
+	 *
+	 * @param slots      the number of beans in each slot
+	 * @param inFlightX  the x-coordinate of the in-flight bean in each row
+	 * @param remaining  the number of beans waiting to be inserted
+	 * @param statistics a copy of the statistics of the landing slots
+	 */
+	BeanCounterSnapshot(int[] slots, int[] inFlightX, int remaining, SlotStatistics statistics) {
+		this.slots = slots;
+		this.inFlightX = inFlightX;
+		this.remaining = remaining;
+		this.statistics = statistics;
+		long total = 0;
+		for (int count : slots) {
+			total += count;
+		}
+		this.slotted = total;
+	}
+
+	public int getSlotCount() {
+		return slots.length;
+	}
+
+	public int getSlotBeanCount(int i) {
+		return slots[i];
+	}
+
+	/**
+	 * Returns the x-coordinate for the in-flight bean at the provided y-coordinate.
+	 *
+	 * @param yPos the y-coordinate in which to look for the in-flight bean
+	 * @return the x-coordinate of the in-flight bean, or NO_BEAN_IN_YPOS
+	 */
+	public int getInFlightBeanXPos(int yPos) {
+		if (yPos < 0 || yPos >= inFlightX.length) {
+			return BeanCounterLogic.NO_BEAN_IN_YPOS;
+		}
+		return inFlightX[yPos];
+	}
+
+	public int getRemainingBeanCount() {
+		return remaining;
+	}
+
+	public long getSlottedBeanCount() {
+		return slotted;
+	}
+
+	public double getAverageSlotBeanCount() {
+		return (double) slotted / slots.length;
+	}
+
+	/**
+	 * Returns the statistics of the landing slots at the time of the snapshot.
+	 * They are a copy, with no public methods that change it.
+	 *
+	 * @return the statistics
+	 */
+	public SlotStatistics getStatistics() {
+		return statistics;
+	}
+}
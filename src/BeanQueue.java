@@ -0,0 +1,147 @@
+import java.util.Arrays;
+
+/**
+ * BeanQueue: A first-in first-out queue of beans kept in an array that is used
+ * as a ring buffer. Unlike a LinkedList, adding and polling beans does not
+ * allocate anything; the array only grows when more beans are added than it
+ * has ever held before, and clear() keeps it around for the next experiment.
+ */
+public class BeanQueue {
+	private Bean[] beans;
+	private int head;		// Index of the next bean to poll
+	private int size;
+
+	/**
+	 * Constructor - creates an empty queue with room for the given number of
+	 * beans.
+	 *
+	 * @param capacity the initial number of beans the queue can hold
+	 */
+	BeanQueue(int capacity) {
+		beans = new Bean[Math.max(1, capacity)];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all beans, keeping the storage for reuse.
+	 */
+	public void clear() {
+		int first = Math.min(size, beans.length - head);
+		Arrays.fill(beans, head, head + first, null);
+		Arrays.fill(beans, 0, size - first, null);
+		head = 0;
+		size = 0;
+	}
+
+	/**
+	 * Adds a bean to the end of the queue.
+	 *
+	 * @param b the bean
+	 */
+	public void add(Bean b) {
+		if (size == beans.length) {
+			grow(size + 1);
+		}
+		int tail = head + size;
+		beans[tail < beans.length ? tail : tail - beans.length] = b;
+		size++;
+	}
+
+	/**
+	 * Adds all the given beans to the end of the queue, in order.
+	 *
+	 * @param bs the beans
+	 */
+	public void addAll(Bean[] bs) {
+		ensureCapacity(size + bs.length);
+		for (Bean b : bs) {
+			add(b);
+		}
+	}
+
+	/**
+	 * Returns a bean without removing it.
+	 *
+	 * @param i the position of the bean, 0 being the front of the queue
+	 * @return the bean
+	 */
+	public Bean get(int i) {
+		int j = head + i;
+		return beans[j < beans.length ? j : j - beans.length];
+	}
+
+	/**
+	 * Removes the bean at the front of the queue.
+	 *
+	 * @return the bean, or null if the queue is empty
+	 */
+	public Bean poll() {
+		if (size == 0) {
+			return null;
+		}
+		Bean b = beans[head];
+		beans[head] = null;
+		head = head + 1 < beans.length ? head + 1 : 0;
+		size--;
+		return b;
+	}
+
+	/**
+	 * Removes the given number of beans from the front of the queue at once.
+	 *
+	 * @param count the number of beans to remove (at most size())
+	 */
+	public void drop(int count) {
+		count = Math.min(count, size);
+		int first = Math.min(count, beans.length - head);
+		Arrays.fill(beans, head, head + first, null);
+		Arrays.fill(beans, 0, count - first, null);
+		head = (head + count) % beans.length;
+		size -= count;
+	}
+
+	/**
+	 * Moves beans from the front of another queue to the end of this one, copying
+	 * whole runs of the arrays at a time.
+	 *
+	 * @param from  the queue to take the beans from
+	 * @param count the number of beans to move (at most from.size())
+	 */
+	public void moveFrom(BeanQueue from, int count) {
+		count = Math.min(count, from.size);
+		ensureCapacity(size + count);
+		while (count > 0) {
+			int tail = (head + size) % beans.length;
+			int n = Math.min(count, Math.min(beans.length - tail, from.beans.length - from.head));
+			System.arraycopy(from.beans, from.head, beans, tail, n);
+			Arrays.fill(from.beans, from.head, from.head + n, null);
+			from.head = (from.head + n) % from.beans.length;
+			from.size -= n;
+			size += n;
+			count -= n;
+		}
+	}
+
+	/**
+	 * Makes sure the queue can hold the given number of beans without growing.
+	 *
+	 * @param capacity the number of beans
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity > beans.length) {
+			grow(capacity);
+		}
+	}
+
+	private void grow(int minCapacity) {
+		Bean[] bigger = new Bean[Math.max(minCapacity, beans.length * 2)];
+		int first = Math.min(size, beans.length - head);
+		System.arraycopy(beans, head, bigger, 0, first);
+		System.arraycopy(beans, 0, bigger, first, size - first);
+		beans = bigger;
+		head = 0;
+	}
+}
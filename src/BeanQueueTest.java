@@ -0,0 +1,85 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class BeanQueueTest {
+
+	@Test
+	public void testPollEmptyReturnsNull() {
+		BeanQueue q = new BeanQueue(2);
+		assertNull(q.poll());
+	}
+
+	@Test
+	public void testPollInOrder() {
+		BeanQueue q = new BeanQueue(2);
+		Bean first = Mockito.mock(Bean.class);
+		Bean second = Mockito.mock(Bean.class);
+		q.add(first);
+		q.add(second);
+		assertSame(q.poll(), first);
+		assertSame(q.poll(), second);
+		assertEquals(q.size(), 0);
+	}
+
+	@Test
+	public void testGrowKeepsOrderAcrossWrap() {
+		BeanQueue q = new BeanQueue(3);
+		Bean[] beans = new Bean[5];
+		for (int i = 0; i < 5; i ++) {
+			beans[i] = Mockito.mock(Bean.class);
+		}
+		q.add(beans[0]);
+		q.add(beans[1]);
+		q.poll();
+		q.add(beans[2]);
+		q.add(beans[3]);
+		q.add(beans[4]);
+		for (int i = 1; i < 5; i ++) {
+			assertSame(q.poll(), beans[i]);
+		}
+	}
+
+	@Test
+	public void testClearEmptiesQueue() {
+		BeanQueue q = new BeanQueue(2);
+		q.addAll(new Bean[]{Mockito.mock(Bean.class), Mockito.mock(Bean.class), Mockito.mock(Bean.class)});
+		assertEquals(q.size(), 3);
+		q.clear();
+		assertEquals(q.size(), 0);
+		assertNull(q.poll());
+	}
+
+	@Test
+	public void testDropRemovesFromFront() {
+		BeanQueue q = new BeanQueue(4);
+		Bean last = Mockito.mock(Bean.class);
+		q.addAll(new Bean[]{Mockito.mock(Bean.class), Mockito.mock(Bean.class), last});
+		q.drop(2);
+		assertEquals(q.size(), 1);
+		assertSame(q.poll(), last);
+	}
+
+	@Test
+	public void testMoveFromKeepsOrderAcrossWrap() {
+		BeanQueue from = new BeanQueue(3);
+		BeanQueue to = new BeanQueue(3);
+		Bean[] beans = new Bean[4];
+		for (int i = 0; i < 4; i ++) {
+			beans[i] = Mockito.mock(Bean.class);
+		}
+		from.add(beans[0]);
+		from.add(beans[1]);
+		from.poll();
+		from.add(beans[2]);
+		from.add(beans[3]);
+		to.add(Mockito.mock(Bean.class));
+		to.poll();
+		to.moveFrom(from, 2);
+		assertEquals(from.size(), 1);
+		assertSame(to.poll(), beans[1]);
+		assertSame(to.poll(), beans[2]);
+		assertSame(from.poll(), beans[3]);
+	}
+}
@@ -27,6 +27,29 @@ public class BeanTest {
 		assertTrue(b.right > -1);
 	}
 
+	@Test
+	public void testConstructorSkillWithinSlots() {
+		for (int i = 0; i < 100; i ++) {
+			Bean b = new Bean(false, new Random(i), 3);
+			assertTrue(b.right >= 0 && b.right <= 2);
+		}
+	}
+
+	@Test
+	public void testConstructorSkillCenteredOnLargeBoard() {
+		Random rand = Mockito.mock(Random.class);
+		Mockito.when(rand.nextGaussian()).thenReturn(0.0);
+		Bean b = new Bean(false, rand, 1001);
+		assertEquals(b.right, 500);
+	}
+
+	@Test
+	public void testWithSkill() {
+		Bean b = Bean.withSkill(false, new Random(), 7);
+		assertFalse(b.isLuck);
+		assertEquals(b.right, 7);
+	}
+
 	@Test
 	public void testFallSkillFallsRight() {
 		Bean b = new Bean(false, new Random());
@@ -9,6 +9,8 @@ public class ButtonPanel extends JPanel {
 	
 	private RunFastButton _fast;
 
+	private TurboButton _turbo;
+
 	private StopButton _stop;
 
 	private LowerHalfButton _lower;
@@ -19,6 +21,8 @@ public class ButtonPanel extends JPanel {
 	
 	private ResetButton _clear;
 
+	private LogScaleButton _log;
+
 	/**
 	 * Constructor - add all of the buttons to the ButtonPanel.
 	 */
@@ -31,11 +35,13 @@ public class ButtonPanel extends JPanel {
 		_step = new StepButton(m);
 		_slow = new RunSlowButton(m);
 		_fast = new RunFastButton(m);
+		_turbo = new TurboButton(m);
 		_stop = new StopButton(m);
 		_lower = new LowerHalfButton(m);
 		_upper = new UpperHalfButton(m);
 		_repeat = new RepeatButton(m);
 		_clear = new ResetButton(m);
+		_log = new LogScaleButton(m);
 		setLayout(new FlowLayout());
 
 		// Add all of the buttons
@@ -43,11 +49,13 @@ public class ButtonPanel extends JPanel {
 		add(_step);
 		add(_slow);
 		add(_fast);
+		add(_turbo);
 		add(_stop);
 		add(_lower);
 		add(_upper);
 		add(_repeat);
 		add(_clear);
+		add(_log);
 	}
 
 }
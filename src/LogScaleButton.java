@@ -0,0 +1,28 @@
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.JButton;
+
+public class LogScaleButton extends JButton {
+
+	private MainPanel _m;
+
+	/**
+	 * Constructor - Adds a listener to the button.
+	 * 
+	 * @param m the main animation panel where all the action happens
+	 */
+	public LogScaleButton(MainPanel m) {
+		super("Log Scale");
+		_m = m;
+		addActionListener(new LogScaleButtonListener());
+	}
+
+	class LogScaleButtonListener implements ActionListener {
+
+		public void actionPerformed(ActionEvent e) {
+			_m.toggleLogScale();
+		}
+	}
+
+}
@@ -18,8 +18,9 @@ public class MainFrame {
 	 * 
 	 * @param beanCount number of beans in the machine
 	 * @param luck      whether beans progress through pure luck (or skill)
+	 * @param slotCount number of slots in the machine
 	 */
-	public MainFrame(int beanCount, boolean luck) {
+	public MainFrame(int beanCount, boolean luck, int slotCount) {
 
 		_frame.setSize(MainFrame.WIDTH, MainFrame.HEIGHT);
 		// Close program when window is closed
@@ -27,7 +28,7 @@ public class MainFrame {
 
 		// Add Main Panel and Button Panel
 
-		_mainPanel = new MainPanel(beanCount, luck);
+		_mainPanel = new MainPanel(beanCount, luck, slotCount);
 
 		_buttonPanel = new ButtonPanel(_mainPanel);
 
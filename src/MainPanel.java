@@ -2,12 +2,15 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics;
-import java.awt.Point;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
 import java.text.DecimalFormat;
 import java.util.Arrays;
 import java.util.Random;
 
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 /**
  * Code by @author Wonsun Ahn
@@ -15,6 +18,20 @@ import javax.swing.JPanel;
  * <p>MainPanel: This is the display for the machine. Most internal state is
  * encapsulated inside _logic. This class mainly handles the display of that
  * internal state animations between frames.
+ *
+ * <p>The animation is driven by a Swing timer that ticks on the event dispatch
+ * thread. Each tick moves the beans one pixel, or takes the next step once they
+ * have arrived and the pause between steps is over. Painting only draws the
+ * current state, so the panel never sleeps on the event dispatch thread and
+ * the buttons stay responsive at any speed. Only the parts of the panel that
+ * change are repainted: the rectangles around moving beans, the bars and the
+ * stats.</p>
+ *
+ * <p>In turbo mode the logic runs at full speed on a background thread with no
+ * animation at all. That thread asks for a repaint at most once per
+ * TURBO_FRAME_TIME, and painting draws a snapshot of the logic, which does not
+ * hold up the turbo thread. Every other action stops the turbo thread before
+ * touching the logic.</p>
  */
 
 public class MainPanel extends JPanel {
@@ -22,22 +39,55 @@ public class MainPanel extends JPanel {
 	private BeanCounterLogic _logic;	// The core logic of the program
 	private Bean[] _beans;				// The beans in the machine
 
-	private Point[] _beanPositions;		// Current bean positions in physical coordinates
-	private Point[] _targetPositions;	// Target positions that the beans need to move to
+	private int[] _beanX;				// Current bean positions in physical coordinates, one per row
+	private int[] _beanY;
+	private int[] _targetX;				// Target positions that the beans need to move to
+	private int[] _targetY;
+	private boolean _isMoving;			// Are the beans moving towards the target positions?
 
 	private int _timeBetweenFrames;		// Time (ms) between bean movement animation frames
 	private int _timeBetweenSteps;		// Time (ms) that is paused before executing the next step
 
 	private boolean _isRunning;			// Is the bean counter running now?
+	private long _nextStepTime;			// Time (ms) at which the next step may be taken
+	private Timer _timer;				// Drives the animation frames
+
+	private Thread _turboThread;		// Runs the logic in turbo mode, or null
+	private volatile boolean _turbo;	// Tells _turboThread to keep going
+	private BeanCounterSnapshot _shown;	// The snapshot being painted in turbo mode, or null
+	private long _slottedBeans;			// Beans in all the slots, kept up to date by a listener on _logic
 
+	private int _expectedBarHeight;		// The height the bar graphs would like at one pixel per bean
 	private int _barHeight;				// The height reserved for bar graphs in the panel
+	private boolean _logScale;			// Are the bar heights on a log scale?
+
+	private int _slotCount;				// The number of slots in the machine
+
+	private BufferedImage _boardImage;	// Pegs and slot labels, redrawn only when the size changes
+
+	// Logical to physical coordinate tables, rebuilt only when the size changes
+	private int[] _rowX;				// Physical x of the first position in each logical row
+	private int[] _rowY;				// Physical y of each logical row
+	private int _pegXSpacing;			// Physical distance between positions in a row
+	private int _layoutWidth;			// Size the tables were built for
+	private int _layoutHeight;
 
-	public static final int SLOT_COUNT = 10;
 	public static final int PEG_SIZE = 10;
 	public static final int BEAN_SIZE = 10;
 	public static final int TOP_MARGIN = 30;
 	public static final int BOTTOM_MARGIN = 30;
 	public static final int BAR_TEXT_HEIGHT = 20;
+	public static final int TURBO_FRAME_TIME = 16;	// Time (ms) between turbo mode repaints
+	// Every peg is drawn, which takes O(slots^2) and needs a few pixels per slot
+	public static final int MAX_SLOT_COUNT = 100;
+	private static final int MIN_PEG_X_SPACING = 2;
+
+	private static final int NO_POSITION = Integer.MIN_VALUE;	// No bean in that row
+	private static final Font STATS_FONT = new Font("Courier", Font.PLAIN, 20);
+	private static final int STATS_WIDTH = 200;
+	private static final int STATS_HEIGHT = TOP_MARGIN + 40;	// Two lines of STATS_FONT
+
+	private final DecimalFormat _averageFormat = new DecimalFormat("#.##");
 
 	/**
 	 * Constructor - creates the main animation panel for the machine.
@@ -46,46 +96,100 @@ public class MainPanel extends JPanel {
 	 * @param isLuck    whether beans progress through pure luck (or skill)
 	 */
 	public MainPanel(int beanCount, boolean isLuck) {
+		this(beanCount, isLuck, Bean.DEFAULT_SLOT_COUNT);
+	}
+
+	/**
+	 * Constructor - creates the main animation panel for a machine with the given
+	 * number of slots.
+	 * 
+	 * @param beanCount number of beans in the machine
+	 * @param isLuck    whether beans progress through pure luck (or skill)
+	 * @param slotCount number of slots in the machine
+	 */
+	public MainPanel(int beanCount, boolean isLuck, int slotCount) {
 		super();
 		
+		_slotCount = slotCount;
+		// One generator is shared by the logic and all the beans
+		Random rand = new SplitMixRandom();
 		// Create the internal logic
-		_logic = new BeanCounterLogic(SLOT_COUNT);
+		_logic = new BeanCounterLogic(_slotCount, rand);
+		_logic.addListener(new BeanCounterListener() {
+			@Override
+			public void beanLanded(int slot) {
+				_slottedBeans++;
+			}
+
+			@Override
+			public void beansRemoved(int slot, int count) {
+				_slottedBeans -= count;
+			}
+
+			@Override
+			public void machineReset() {
+				_slottedBeans = 0;
+			}
+
+			@Override
+			public void machineRepeated() {
+				_slottedBeans = 0;
+			}
+
+			@Override
+			public void machineRestored(int[] slots) {
+				_slottedBeans = 0;
+				for (int count : slots) {
+					_slottedBeans += count;
+				}
+			}
+		});
 		// Create the beans
 		_beans = new Bean[beanCount];
 		for (int i = 0; i < beanCount; i++) {
-			_beans[i] = new Bean(isLuck, new Random());
+			_beans[i] = new Bean(isLuck, rand, _slotCount);
 		}
 		// Initialize the logic with the beans
 		_logic.reset(_beans);
 		// Set some display related parameters
 		_timeBetweenFrames = 10;
 		_timeBetweenSteps = 100;
+		_timer = new Timer(_timeBetweenFrames, e -> animateOneFrame());
+		_beanX = new int[_slotCount];
+		_beanY = new int[_slotCount];
+		_targetX = new int[_slotCount];
+		_targetY = new int[_slotCount];
+		Arrays.fill(_beanX, NO_POSITION);
+		Arrays.fill(_targetX, NO_POSITION);
 		// Heuristically maximum height of a bell curve with some headroom
-		_barHeight = (int) Math.round(beanCount * 0.27) + 10; 
+		double maxProb = 0.0;
+		for (double p : SampledBeanCounter.slotProbabilities(_slotCount)) {
+			maxProb = Math.max(maxProb, p);
+		}
+		_expectedBarHeight = (int) Math.min(Integer.MAX_VALUE, Math.round(beanCount * maxProb * 1.1) + 10);
 		setBackground(Color.WHITE);
 	}
 
 	/**
-	 * Move a bean one pixel from p to q.
+	 * Move the bean in row i one pixel towards its target, which is in row i + 1.
 	 * 
-	 * @param p current position of the bean
-	 * @param q target position of the bean
+	 * @param i the row of the bean
 	 * @return whether current position already equals target position
 	 */
-	private boolean moveOnePixel(Point p, Point q) {
+	private boolean moveOnePixel(int i) {
 		boolean arrivedX = false;
 		boolean arrivedY = false;
-		if (p.x > q.x) {
-			p.x--;
-		} else if (p.x < q.x) {
-			p.x++;
+		if (_beanX[i] > _targetX[i + 1]) {
+			_beanX[i]--;
+		} else if (_beanX[i] < _targetX[i + 1]) {
+			_beanX[i]++;
 		} else {
 			arrivedX = true;
 		}
-		if (p.y > q.y) {
-			p.y--;
-		} else if (p.y < q.y) {
-			p.y++;
+		if (_beanY[i] > _targetY[i + 1]) {
+			_beanY[i]--;
+		} else if (_beanY[i] < _targetY[i + 1]) {
+			_beanY[i]++;
 		} else {
 			arrivedY = true;
 		}
@@ -93,44 +197,72 @@ public class MainPanel extends JPanel {
 	}
 
 	/**
-	 * Returns the physical coordinate for logical coordinate p. The logical
-	 * coordinate is the coordinate system used by BeanCounterLogic (see
-	 * BeanCounterLogic for details). The physical coordinate is the actual
-	 * coordinate in the MainPanel.
-	 * 
-	 * @param p the logical coordinate
-	 * @return the translated physical coordinate.
+	 * Rebuilds the tables that translate logical coordinates into physical
+	 * coordinates, if the panel has changed size since they were built. The
+	 * logical coordinate is the coordinate system used by BeanCounterLogic (see
+	 * BeanCounterLogic for details), with row _slotCount being the slots. The
+	 * physical coordinate is the actual coordinate in the MainPanel.
 	 */
-	private Point logicalToPhysical(Point p) {
-		Dimension d = getSize();
-		int initialX = d.width / 2;
+	private void updateLayout() {
+		int width = getWidth();
+		int height = getHeight();
+		if (_rowX != null && width == _layoutWidth && height == _layoutHeight) {
+			return;
+		}
+		int initialX = width / 2;
 		int initialY = TOP_MARGIN;
-		int pegXSpacing = d.width / (SLOT_COUNT);
-		int pegYSpacing = (d.height - TOP_MARGIN - BOTTOM_MARGIN - _barHeight - BAR_TEXT_HEIGHT)
-				/ (SLOT_COUNT - 1);
-		int physicalX = initialX - pegXSpacing / 2 * p.y + p.x * pegXSpacing;
-		int physicalY = initialY + p.y * pegYSpacing;
-		return new Point(physicalX, physicalY);
+		// A panel shrunk below a few pixels per slot spills over its sides rather
+		// than piling every column onto one
+		_pegXSpacing = Math.max(MIN_PEG_X_SPACING, width / _slotCount);
+		// The bars get at most half of the room left by the margins, so that a large
+		// number of beans cannot squeeze the pegs out of the panel
+		int room = height - TOP_MARGIN - BOTTOM_MARGIN - BAR_TEXT_HEIGHT;
+		_barHeight = Math.max(0, Math.min(_expectedBarHeight, room / 2));
+		int pegYSpacing = (height - TOP_MARGIN - BOTTOM_MARGIN - _barHeight - BAR_TEXT_HEIGHT)
+				/ Math.max(1, _slotCount - 1);
+		_rowX = new int[_slotCount + 1];
+		_rowY = new int[_slotCount + 1];
+		for (int y = 0; y <= _slotCount; y++) {
+			_rowX[y] = initialX - _pegXSpacing / 2 * y;
+			_rowY[y] = initialY + y * pegYSpacing;
+		}
+		_layoutWidth = width;
+		_layoutHeight = height;
+	}
+
+	/**
+	 * Returns the physical x-coordinate of a logical coordinate.
+	 * 
+	 * @param x the logical x-coordinate
+	 * @param y the logical y-coordinate
+	 * @return the physical x-coordinate
+	 */
+	private int physicalX(int x, int y) {
+		return _rowX[y] + x * _pegXSpacing;
 	}
 
 	/**
 	 * Calculates all the in-flight bean positions (in physical coordinates) from
-	 * _logic.
+	 * _logic, one per row.
 	 * 
-	 * @return an array of in-flight bean positions
+	 * @param xs filled with the x-coordinates, or NO_POSITION for empty rows
+	 * @param ys filled with the y-coordinates
+	 * @return whether there are any beans in-flight
 	 */
-	private Point[] getBeanPositions() {
-		Point[] positions = new Point[SLOT_COUNT];
-		for (int yPos = 0; yPos < SLOT_COUNT; yPos++) {
+	private boolean getBeanPositions(int[] xs, int[] ys) {
+		updateLayout();
+		boolean any = false;
+		for (int yPos = 0; yPos < _slotCount; yPos++) {
 			int xPos = _logic.getInFlightBeanXPos(yPos);
 			if (xPos != BeanCounterLogic.NO_BEAN_IN_YPOS) {
-				positions[yPos] = logicalToPhysical(new Point(xPos, yPos));
-				positions[yPos].y -= PEG_SIZE + 5;
+				xs[yPos] = physicalX(xPos, yPos);
+				ys[yPos] = _rowY[yPos] - PEG_SIZE - 5;
+				any = true;
 			} else {
-				positions[yPos] = null;
+				xs[yPos] = NO_POSITION;
 			}
 		}
-		return positions;
+		return any;
 	}
 
 	/**
@@ -138,21 +270,106 @@ public class MainPanel extends JPanel {
 	 */
 	private void runOneStep() {
 		// Get current positions
-		_beanPositions = getBeanPositions();
+		getBeanPositions(_beanX, _beanY);
 		// Drop the last bean into the slot
-		_beanPositions[SLOT_COUNT - 1] = null;
+		_beanX[_slotCount - 1] = NO_POSITION;
 		// Advance one step
 		_logic.advanceStep();
 		// Get new positions
-		_targetPositions = getBeanPositions();
-		// Repaint
-		repaint();
+		getBeanPositions(_targetX, _targetY);
+		_isMoving = true;
+		// Animate towards the new positions
+		_timer.setDelay(_timeBetweenFrames);
+		if (!_timer.isRunning()) {
+			_timer.start();
+		}
+		// A bean may have landed
+		repaintBars();
+		repaintStats();
+	}
+
+	/**
+	 * Repaint the area of a bean at the given position, with a pixel to spare on
+	 * every side so that a bean that just moved one pixel is covered too.
+	 * 
+	 * @param x the physical x-coordinate of the bean
+	 * @param y the physical y-coordinate of the bean
+	 */
+	private void repaintBean(int x, int y) {
+		repaint(x - 1, y - 1, BEAN_SIZE + 2, BEAN_SIZE + 2);
+	}
+
+	/**
+	 * Repaint the area of all the in-flight beans.
+	 */
+	private void repaintBeans() {
+		for (int i = 0; i < _slotCount; i++) {
+			if (_beanX[i] != NO_POSITION) {
+				repaintBean(_beanX[i], _beanY[i]);
+			}
+		}
+	}
+
+	/**
+	 * Repaint the area reserved for the bars. Safe to call from any thread.
+	 */
+	private void repaintBars() {
+		int bottom = getHeight() - BOTTOM_MARGIN - BAR_TEXT_HEIGHT;
+		int top = Math.max(0, bottom - _barHeight);
+		repaint(0, top, getWidth(), bottom - top + 1);
+	}
+
+	/**
+	 * Repaint the area of the stats text. Safe to call from any thread.
+	 */
+	private void repaintStats() {
+		repaint(getWidth() - STATS_WIDTH, 0, STATS_WIDTH, STATS_HEIGHT);
+	}
+
+	/**
+	 * Advance the animation by one frame. Called by _timer on the event dispatch
+	 * thread, so it is safe to touch _logic and the positions here.
+	 */
+	private void animateOneFrame() {
+		if (_isMoving) {
+			boolean allArrived = true;
+			for (int i = 0; i < _slotCount - 1; i++) {
+				if (_beanX[i] != NO_POSITION && _targetX[i + 1] != NO_POSITION) {
+					allArrived &= moveOnePixel(i);
+					repaintBean(_beanX[i], _beanY[i]);
+				}
+			}
+			if (allArrived) {
+				// Now that beans have arrived, reset bean positions for the next frame.
+				// The landed bean goes away and a new one shows up at the top.
+				repaintBeans();
+				boolean anyInFlight = getBeanPositions(_beanX, _beanY);
+				repaintBeans();
+				// Stop animating for this step
+				_isMoving = false;
+				// If running, pause before taking the next step
+				if (_isRunning) {
+					if (!anyInFlight) {
+						_isRunning = false;
+					} else {
+						_nextStepTime = System.currentTimeMillis() + _timeBetweenSteps;
+					}
+				}
+			}
+		} else if (_isRunning) {
+			if (System.currentTimeMillis() >= _nextStepTime) {
+				runOneStep();
+			}
+		} else {
+			_timer.stop();
+		}
 	}
 
 	/**
 	 * Advance the machine one step. Stop the machine if running continuously.
 	 */
 	public void step() {
+		stopTurbo();
 		_isRunning = false;
 		_timeBetweenFrames = 10;
 		runOneStep();
@@ -162,6 +379,7 @@ public class MainPanel extends JPanel {
 	 * Run the machine continuously in slow mode.
 	 */
 	public void runSlow() {
+		stopTurbo();
 		_isRunning = true;
 		_timeBetweenFrames = 10;
 		_timeBetweenSteps = 100;
@@ -172,22 +390,105 @@ public class MainPanel extends JPanel {
 	 * Run the machine continuously in fast mode.
 	 */
 	public void runFast() {
+		stopTurbo();
 		_isRunning = true;
 		_timeBetweenFrames = 1;
 		_timeBetweenSteps = 1;
 		runOneStep();
 	}
 
+	/**
+	 * Run the machine to the end in turbo mode. The logic runs at full speed on a
+	 * background thread and only the slot counts and stats are shown.
+	 */
+	public void runTurbo() {
+		if (_turboThread != null) {
+			return;
+		}
+		// Stop any animation in progress; the beans are not drawn in turbo mode
+		_isRunning = false;
+		_isMoving = false;
+		_timer.stop();
+		_turbo = true;
+		_turboThread = new Thread(this::runTurboThread, "BeanCounterTurbo");
+		_turboThread.setDaemon(true);
+		_turboThread.start();
+	}
+
+	/**
+	 * The body of the turbo thread. Steps the logic until it finishes or turbo
+	 * mode is stopped, asking for the bars and stats to be repainted along the way.
+	 */
+	private void runTurboThread() {
+		long lastRepaint = 0;
+		boolean running = true;
+		while (_turbo && running) {
+			running = _logic.advanceStep();
+			long now = System.currentTimeMillis();
+			if (now - lastRepaint >= TURBO_FRAME_TIME || !running) {
+				lastRepaint = now;
+				repaintBars();
+				repaintStats();
+			}
+		}
+		if (!running) {
+			// Finished on our own, so hand the logic back to the event dispatch thread
+			Thread self = Thread.currentThread();
+			SwingUtilities.invokeLater(() -> {
+				if (_turboThread == self) {
+					stopTurbo();
+					repaint();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Stop turbo mode, if it is on, and wait for the turbo thread to let go of the
+	 * logic.
+	 */
+	private void stopTurbo() {
+		if (_turboThread == null) {
+			return;
+		}
+		_turbo = false;
+		boolean interrupted = false;
+		while (true) {
+			try {
+				_turboThread.join();
+				break;
+			} catch (InterruptedException ie) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		_turboThread = null;
+	}
+
 	public void stop() {
+		stopTurbo();
 		_isRunning = false;
+		repaint();
+	}
+
+	/**
+	 * Switch the bars between a linear and a log scale.
+	 */
+	public void toggleLogScale() {
+		_logScale = !_logScale;
+		repaintBars();
 	}
 
 	public void lowerHalf() {
+		stopTurbo();
 		_logic.lowerHalf();
 		repaint();
 	}
 
 	public void upperHalf() {
+		stopTurbo();
 		_logic.upperHalf();
 		repaint();
 	}
@@ -198,10 +499,11 @@ public class MainPanel extends JPanel {
 	 * with that half of your beans only.
 	 */
 	public void repeat() {
+		stopTurbo();
 		_isRunning = false;
+		_isMoving = false;
 		_logic.repeat();
-		// repeat() clears machine of in-flight beans, so need to refresh positions
-		_beanPositions = getBeanPositions();
+		// The positions of the new in-flight beans are picked up when painting
 		repaint();
 	}
 
@@ -209,22 +511,45 @@ public class MainPanel extends JPanel {
 	 * Stop the machine reset with the original beans.
 	 */
 	public void reset() {
+		stopTurbo();
 		_isRunning = false;
+		_isMoving = false;
 		_logic.reset(_beans);
-		// repeat() clears machine of in-flight beans, so need to refresh positions
-		_beanPositions = getBeanPositions();
+		// The positions of the new in-flight beans are picked up when painting
 		repaint();
 	}
 
+	/**
+	 * Draw the static parts of the machine, the pegs and the slot labels. They
+	 * only move when the panel is resized, so they are drawn once into
+	 * _boardImage and copied from there on every frame.
+	 * 
+	 * @param g the graphics object
+	 */
+	private void drawBoard(Graphics g) {
+		Dimension d = getSize();
+		if (d.width <= 0 || d.height <= 0) {
+			return;
+		}
+		if (_boardImage == null || _boardImage.getWidth() != d.width || _boardImage.getHeight() != d.height) {
+			_boardImage = new BufferedImage(d.width, d.height, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D bg = _boardImage.createGraphics();
+			bg.setFont(getFont());
+			drawPegs(bg);
+			drawSlotLabels(bg);
+			bg.dispose();
+		}
+		g.drawImage(_boardImage, 0, 0, null);
+	}
+
 	/**
 	 * Draw the pegs in the machine.
 	 */
 	public void drawPegs(Graphics g) {
 		g.setColor(Color.BLACK);
-		for (int i = 0; i < SLOT_COUNT - 1; i++) {
+		for (int i = 0; i < _slotCount - 1; i++) {
 			for (int j = 0; j <= i; j++) {
-				Point p = logicalToPhysical(new Point(j, i));
-				g.drawRect(p.x, p.y, PEG_SIZE, PEG_SIZE);
+				g.drawRect(physicalX(j, i), _rowY[i], PEG_SIZE, PEG_SIZE);
 			}
 		}
 	}
@@ -236,9 +561,9 @@ public class MainPanel extends JPanel {
 	 */
 	public void drawBeans(Graphics g) {
 		g.setColor(Color.BLACK);
-		for (int i = 0; i < SLOT_COUNT; i++) {
-			if (_beanPositions[i] != null) {
-				g.fillOval(_beanPositions[i].x, _beanPositions[i].y, BEAN_SIZE, BEAN_SIZE);
+		for (int i = 0; i < _slotCount; i++) {
+			if (_beanX[i] != NO_POSITION) {
+				g.fillOval(_beanX[i], _beanY[i], BEAN_SIZE, BEAN_SIZE);
 			}
 		}
 	}
@@ -250,12 +575,61 @@ public class MainPanel extends JPanel {
 	 */
 	public void drawBars(Graphics g) {
 		g.setColor(Color.BLACK);
-		for (int i = 0; i < SLOT_COUNT; i++) {
-			Dimension d = getSize();
-			Point p = logicalToPhysical(new Point(i, SLOT_COUNT));
-			g.fillRect(p.x, d.height - BOTTOM_MARGIN - BAR_TEXT_HEIGHT - _logic.getSlotBeanCount(i),
-					d.width / (SLOT_COUNT + 1), _logic.getSlotBeanCount(i));
-			g.drawString(String.valueOf(i), p.x + d.width / (SLOT_COUNT + 1) / 2, d.height - BOTTOM_MARGIN);
+		Dimension d = getSize();
+		int tallest = 0;
+		for (int i = 0; i < _slotCount; i++) {
+			tallest = Math.max(tallest, shownSlotBeanCount(i));
+		}
+		for (int i = 0; i < _slotCount; i++) {
+			int height = barPixels(shownSlotBeanCount(i), tallest);
+			g.fillRect(physicalX(i, _slotCount), d.height - BOTTOM_MARGIN - BAR_TEXT_HEIGHT - height,
+					d.width / (_slotCount + 1), height);
+		}
+	}
+
+	/**
+	 * Returns the bean count of the ith slot that is being painted, which comes
+	 * from the turbo thread in turbo mode.
+	 * 
+	 * @param i index of slot
+	 * @return number of beans in slot
+	 */
+	private int shownSlotBeanCount(int i) {
+		return _shown != null ? _shown.getSlotBeanCount(i) : _logic.getSlotBeanCount(i);
+	}
+
+	/**
+	 * Calculates the height of a bar. On the linear scale a bean is one pixel until
+	 * the tallest bar would not fit, after which all bars shrink so the tallest
+	 * one fills _barHeight. On the log scale the tallest bar always fills it.
+	 * 
+	 * @param count   the number of beans in the slot
+	 * @param tallest the largest number of beans in any slot
+	 * @return the height of the bar in pixels
+	 */
+	private int barPixels(int count, int tallest) {
+		if (count <= 0) {
+			return 0;
+		}
+		if (_logScale) {
+			return (int) Math.round(_barHeight * Math.log1p(count) / Math.log1p(tallest));
+		}
+		if (tallest <= _barHeight) {
+			return count;
+		}
+		return (int) ((long) count * _barHeight / tallest);
+	}
+
+	/**
+	 * Draw the slot numbers under the bars.
+	 * 
+	 * @param g the graphics object
+	 */
+	public void drawSlotLabels(Graphics g) {
+		g.setColor(Color.BLACK);
+		Dimension d = getSize();
+		for (int i = 0; i < _slotCount; i++) {
+			g.drawString(String.valueOf(i), physicalX(i, _slotCount) + d.width / (_slotCount + 1) / 2, d.height - BOTTOM_MARGIN);
 		}
 	}
 
@@ -267,60 +641,40 @@ public class MainPanel extends JPanel {
 	 */
 	public void drawStats(Graphics g) {
 		Dimension d = getSize();
-		g.setFont(new Font("Courier", Font.PLAIN, 20));
-		String average = "Average = " + new DecimalFormat("#.##").format(_logic.getAverageSlotBeanCount());
-		g.drawString(average, d.width - 200, TOP_MARGIN);
-		String remaining = "Remaining = " + _logic.getRemainingBeanCount();
-		g.drawString(remaining, d.width - 200, TOP_MARGIN + 30);
+		g.setFont(STATS_FONT);
+		double averageCount;
+		int remainingCount;
+		if (_shown != null) {
+			averageCount = _shown.getAverageSlotBeanCount();
+			remainingCount = _shown.getRemainingBeanCount();
+		} else {
+			averageCount = (double) _slottedBeans / _slotCount;
+			remainingCount = _logic.getRemainingBeanCount();
+		}
+		String average = "Average = " + _averageFormat.format(averageCount);
+		g.drawString(average, d.width - STATS_WIDTH, TOP_MARGIN);
+		String remaining = "Remaining = " + remainingCount;
+		g.drawString(remaining, d.width - STATS_WIDTH, TOP_MARGIN + 30);
 	}
 
 	@Override
 	public void paintComponent(Graphics g) {
 		super.paintComponent(g);
-		if (_beanPositions == null) {
-			_beanPositions = getBeanPositions();
+		updateLayout();
+		drawBoard(g);
+		if (_turboThread != null) {
+			// The turbo thread is driving the logic, so draw a snapshot of it
+			_shown = _logic.snapshot();
+		} else {
+			if (!_isMoving) {
+				// Pick up new beans and any change in size between steps
+				getBeanPositions(_beanX, _beanY);
+			}
+			drawBeans(g);
 		}
-		drawPegs(g);
-		drawBeans(g);
 		drawBars(g);
 		drawStats(g);
-
-		// If we have target positions, we are still moving
-		if (_targetPositions != null) {
-			boolean allArrived = true;
-			for (int i = 0; i < SLOT_COUNT - 1; i++) {
-				if (_beanPositions[i] != null && _targetPositions[i + 1] != null) {
-					allArrived &= moveOnePixel(_beanPositions[i], _targetPositions[i + 1]);
-				}
-			}
-			try {
-				Thread.sleep(_timeBetweenFrames);
-			} catch (InterruptedException ie) {
-				// Nothing to do here
-			}
-			if (allArrived) {
-				// Now that beans have arrived, reset bean positions for the next frame
-				_beanPositions = getBeanPositions();
-				// Remove target positions such that animations stop for this step
-				_targetPositions = null;
-				// If running, take the next step
-				if (_isRunning) {
-					if (Arrays.stream(_beanPositions).filter(p -> p != null).count() == 0) {
-						_isRunning = false;
-					} else {
-						try {
-							Thread.sleep(_timeBetweenSteps);
-						} catch (InterruptedException ie) {
-							// Nothing to do here
-						}
-						runOneStep();
-						return;
-					}
-				}
-			}
-			// Put repaint request on the queue again for the next frame
-			repaint();
-		}
+		_shown = null;
 	}
 
 }
@@ -0,0 +1,81 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * MonteCarloBeanCounter: Repeats the same experiment many times with
+ * independent beans and aggregates the slot bean counts of all the trials.
+ * The trials are spread over a pool of workers; each worker has its own
+ * generator and its own TrialStatistics, which are merged at the end. No trial
+ * results are kept, so memory does not grow with the number of trials. The
+ * workers run on at most one thread per core, but how many there are is up to
+ * the caller, so a seeded run gives the same numbers on any machine.
+ */
+public class MonteCarloBeanCounter {
+	// Workers when none are asked for. Each worker has its own generator, so the
+	// number of workers, unlike the number of threads, changes the results.
+	static final int DEFAULT_WORKER_COUNT = 8;
+
+	private int slotCount;
+	private int workerCount;
+	private SplitMixRandom rand;
+
+	/**
+	 * Constructor - creates a runner for machines with the given number of slots.
+	 *
+	 * @param slotCount   the number of slots in the machine
+	 * @param workerCount the number of workers to spread the trials over
+	 * @param rand        the generator the worker generators are split from
+	 */
+	MonteCarloBeanCounter(int slotCount, int workerCount, SplitMixRandom rand) {
+		this.slotCount = slotCount;
+		this.workerCount = workerCount;
+		this.rand = rand;
+	}
+
+	/**
+	 * Runs the trials and returns the aggregated statistics.
+	 *
+	 * @param trialCount the number of independent experiments
+	 * @param beanCount  the number of beans in each experiment
+	 * @param luck       whether the beans are in luck mode (or skill mode)
+	 * @param sampled    whether luck mode trials draw their counts statistically
+	 * @return the statistics over all trials
+	 */
+	public TrialStatistics run(int trialCount, int beanCount, boolean luck, boolean sampled) {
+		List<Callable<TrialStatistics>> workers = new ArrayList<Callable<TrialStatistics>>();
+		for (int w = 0; w < workerCount; w++) {
+			int workerTrials = trialCount / workerCount + (w < trialCount % workerCount ? 1 : 0);
+			SplitMixRandom workerRand = rand.split();
+			workers.add(() -> {
+				TrialStatistics stats = new TrialStatistics(slotCount);
+				for (int t = 0; t < workerTrials; t++) {
+					stats.add(ParallelBeanCounter.runShard(slotCount, beanCount, luck, sampled, workerRand));
+				}
+				return stats;
+			});
+		}
+
+		int threads = Math.min(workerCount, Runtime.getRuntime().availableProcessors());
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		TrialStatistics stats = new TrialStatistics(slotCount);
+		try {
+			// Merge in worker order so the same seed always gives the same numbers
+			for (Future<TrialStatistics> f : executor.invokeAll(workers)) {
+				stats.merge(f.get());
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while running trials", ie);
+		} catch (ExecutionException ee) {
+			throw new IllegalStateException("Trial failed", ee.getCause());
+		} finally {
+			executor.shutdown();
+		}
+		return stats;
+	}
+}
@@ -0,0 +1,345 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * PackedBeanPool: A first-in first-out queue of waiting beans kept outside the
+ * Java heap, for experiments with more beans than would fit in it as objects.
+ * Each bean is stored as its state (see Bean.getState()) in one byte, or in two
+ * or four for machines with more than 128 or 32768 slots.
+ *
+ * <p>The states live in fixed-size segments, either direct buffers or regions
+ * of a memory-mapped scratch file. Beans are only ever added at the end and
+ * taken from the front, so the machine streams through the segments in order,
+ * and a segment that has been used up is recycled for the next one added.</p>
+ *
+ * <p>BeanCounterLogic.reset(PackedBeanPool) hands a pool to the machine, which
+ * then takes its waiting beans from it and puts beans back into it on
+ * repeat(). The pool is still closed by whoever created it, once the machine
+ * has been reset with something else. The one exception is a pool that
+ * BeanCounterCheckpoint creates to restore a machine: that pool belongs to the
+ * machine, which closes it on its next reset or restore.</p>
+ */
+public class PackedBeanPool implements Closeable {
+	private static final int SEGMENT_SIZE = 1 << 24;
+
+	private final int slotCount;
+	private final int width;			// Bytes per bean
+	private final int segmentSize;		// Bytes per segment, a multiple of width
+	private final FileChannel channel;	// Scratch file the segments are mapped from, or null
+	private long mapped;				// Bytes of the file mapped so far
+	private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+	private ByteBuffer spare;			// Used-up segment kept for the next one needed
+	private int head;					// Offset in the first segment of the next bean to poll
+	private int tail;					// Offset in the last segment where the next bean goes
+	private int size;
+	private boolean open = true;
+
+	/**
+	 * Constructor - creates an empty pool.
+	 *
+	 * @param slotCount   the number of slots in the machine the beans are for
+	 * @param channel     the file to map the segments from, or null for direct buffers
+	 * @param segmentSize the number of bytes in a segment
+	 */
+	PackedBeanPool(int slotCount, FileChannel channel, int segmentSize) {
+		this.slotCount = slotCount;
+		this.width = stateWidth(slotCount);
+		this.channel = channel;
+		this.segmentSize = segmentSize - segmentSize % width;
+		this.tail = this.segmentSize;
+	}
+
+	/**
+	 * Creates an empty pool in direct buffers, which take no heap space but still
+	 * take memory.
+	 *
+	 * @param slotCount the number of slots in the machine the beans are for
+	 * @return the pool
+	 */
+	public static PackedBeanPool offHeap(int slotCount) {
+		return new PackedBeanPool(slotCount, null, SEGMENT_SIZE);
+	}
+
+	/**
+	 * Creates an empty pool backed by a memory-mapped file, so the operating
+	 * system pages the beans in and out as the machine streams through them. The
+	 * file is scratch space: it is overwritten, and deleted by close(), or at the
+	 * latest when the JVM exits.
+	 *
+	 * @param slotCount the number of slots in the machine the beans are for
+	 * @param file      the scratch file
+	 * @return the pool
+	 * @throws IOException if the file cannot be created
+	 */
+	public static PackedBeanPool mapped(int slotCount, Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.DELETE_ON_CLOSE);
+		return new PackedBeanPool(slotCount, channel, SEGMENT_SIZE);
+	}
+
+	/**
+	 * Returns the number of bytes a bean takes in a pool, or in a checkpoint, for
+	 * a machine with the given number of slots.
+	 *
+	 * @param slotCount the number of slots in the machine
+	 * @return 1, 2 or 4
+	 */
+	static int stateWidth(int slotCount) {
+		if (slotCount <= Byte.MAX_VALUE + 1) {
+			return 1;
+		} else if (slotCount <= Short.MAX_VALUE + 1) {
+			return 2;
+		}
+		return 4;
+	}
+
+	/**
+	 * Puts the state of a bean into a buffer at its position, in the given number
+	 * of bytes.
+	 *
+	 * @param dst   the buffer
+	 * @param width the number of bytes, as returned by stateWidth()
+	 * @param state the state of the bean
+	 */
+	static void putState(ByteBuffer dst, int width, int state) {
+		if (width == 1) {
+			dst.put((byte) state);
+		} else if (width == 2) {
+			dst.putShort((short) state);
+		} else {
+			dst.putInt(state);
+		}
+	}
+
+	/**
+	 * Gets the state of a bean put into a buffer by putState().
+	 *
+	 * @param src   the buffer
+	 * @param width the number of bytes, as returned by stateWidth()
+	 * @return the state of the bean
+	 */
+	static int getState(ByteBuffer src, int width) {
+		if (width == 1) {
+			return src.get();
+		} else if (width == 2) {
+			return src.getShort();
+		}
+		return src.getInt();
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	public boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Adds a bean to the end of the pool.
+	 *
+	 * @param state the state of the bean
+	 */
+	public void add(int state) {
+		add(state, 1);
+	}
+
+	/**
+	 * Adds a number of beans in the same state to the end of the pool.
+	 *
+	 * @param state the state of the beans
+	 * @param count the number of beans
+	 */
+	public void add(int state, int count) {
+		if (count > Integer.MAX_VALUE - size) {
+			throw new IllegalStateException("Too many beans for one pool");
+		}
+		while (count > 0) {
+			if (tail == segmentSize) {
+				segments.add(newSegment());
+				tail = 0;
+			}
+			ByteBuffer segment = segments.get(segments.size() - 1);
+			int n = Math.min(count, (segmentSize - tail) / width);
+			for (int i = 0; i < n; i ++) {
+				write(segment, tail, state);
+				tail += width;
+			}
+			size += n;
+			count -= n;
+		}
+	}
+
+	/**
+	 * Removes the bean at the front of the pool.
+	 *
+	 * @return the state of the bean
+	 * @throws NoSuchElementException if the pool is empty
+	 */
+	public int poll() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		int state = read(segments.get(0), head);
+		head += width;
+		size--;
+		if (size == 0) {
+			// Start over at the beginning of the one segment left
+			head = 0;
+			tail = 0;
+		} else if (head == segmentSize) {
+			spare = segments.remove(0);
+			head = 0;
+		}
+		return state;
+	}
+
+	/**
+	 * Returns the state of a bean without removing it.
+	 *
+	 * @param i the position of the bean, 0 being the front of the pool
+	 * @return the state of the bean
+	 */
+	public int get(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+		}
+		long offset = head + (long) i * width;
+		return read(segments.get((int) (offset / segmentSize)), (int) (offset % segmentSize));
+	}
+
+	/**
+	 * Removes all beans, keeping one segment for reuse.
+	 */
+	public void clear() {
+		while (segments.size() > 1) {
+			segments.remove(segments.size() - 1);
+		}
+		head = 0;
+		tail = segments.isEmpty() ? segmentSize : 0;
+		size = 0;
+	}
+
+	/**
+	 * Copies the packed states of beans straight from the segments into a
+	 * buffer, as many as fit, without taking them out of the pool.
+	 *
+	 * @param i     the position of the first bean, 0 being the front of the pool
+	 * @param count the largest number of beans to copy
+	 * @param dst   the buffer, which gets stateWidth() bytes per bean
+	 * @return the number of beans copied
+	 */
+	int copyTo(int i, int count, ByteBuffer dst) {
+		if (i < 0 || i > size) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+		}
+		count = Math.min(Math.min(count, size - i), dst.remaining() / width);
+		long offset = head + (long) i * width;
+		int left = count * width;
+		while (left > 0) {
+			// A read-only view, so the segment itself is left alone
+			ByteBuffer from = segments.get((int) (offset / segmentSize)).asReadOnlyBuffer();
+			from.position((int) (offset % segmentSize));
+			from.limit(Math.min(from.position() + left, segmentSize));
+			int n = from.remaining();
+			dst.put(from);
+			offset += n;
+			left -= n;
+		}
+		return count;
+	}
+
+	/**
+	 * Adds beans to the end of the pool from packed states in a buffer, as put
+	 * there by copyTo() or putState().
+	 *
+	 * @param src   the buffer
+	 * @param count the number of beans
+	 */
+	void addFrom(ByteBuffer src, int count) {
+		if (count > Integer.MAX_VALUE - size) {
+			throw new IllegalStateException("Too many beans for one pool");
+		}
+		while (count > 0) {
+			if (tail == segmentSize) {
+				segments.add(newSegment());
+				tail = 0;
+			}
+			int n = Math.min(count, (segmentSize - tail) / width);
+			ByteBuffer from = src.duplicate();
+			from.limit(from.position() + n * width);
+			ByteBuffer to = segments.get(segments.size() - 1).duplicate();
+			to.position(tail);
+			to.put(from);
+			src.position(from.position());
+			tail += n * width;
+			size += n;
+			count -= n;
+		}
+	}
+
+	/**
+	 * Closes the scratch file of a mapped pool, which deletes it. The pool must
+	 * not be used afterwards.
+	 *
+	 * @throws IOException if the file cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		open = false;
+		segments.clear();
+		spare = null;
+		size = 0;
+		if (channel != null) {
+			channel.close();
+		}
+	}
+
+	private ByteBuffer newSegment() {
+		if (spare != null) {
+			ByteBuffer segment = spare;
+			spare = null;
+			return segment;
+		}
+		if (channel == null) {
+			return ByteBuffer.allocateDirect(segmentSize);
+		}
+		try {
+			ByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, mapped, segmentSize);
+			mapped += segmentSize;
+			return segment;
+		} catch (IOException ioe) {
+			throw new IllegalStateException("Cannot map bean pool file", ioe);
+		}
+	}
+
+	private int read(ByteBuffer segment, int offset) {
+		if (width == 1) {
+			return segment.get(offset);
+		} else if (width == 2) {
+			return segment.getShort(offset);
+		}
+		return segment.getInt(offset);
+	}
+
+	private void write(ByteBuffer segment, int offset, int state) {
+		if (width == 1) {
+			segment.put(offset, (byte) state);
+		} else if (width == 2) {
+			segment.putShort(offset, (short) state);
+		} else {
+			segment.putInt(offset, state);
+		}
+	}
+}
@@ -0,0 +1,117 @@
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+public class PackedBeanPoolTest {
+
+	@Test
+	public void testPollsInOrderAcrossSegments() {
+		PackedBeanPool pool = new PackedBeanPool(10, null, 8);
+		for (int i = 0; i < 50; i ++) {
+			pool.add(i % 10 - 1);
+		}
+		assertEquals(pool.size(), 50);
+		for (int i = 0; i < 50; i ++) {
+			assertEquals(pool.poll(), i % 10 - 1);
+		}
+		assertEquals(pool.size(), 0);
+	}
+
+	@Test
+	public void testInterleavedAddAndPollReuseSegments() {
+		PackedBeanPool pool = new PackedBeanPool(10, null, 4);
+		int next = 0;
+		int expected = 0;
+		for (int round = 0; round < 20; round ++) {
+			for (int i = 0; i < 7; i ++) {
+				pool.add(next++ % 9);
+			}
+			for (int i = 0; i < 5; i ++) {
+				assertEquals(pool.poll(), expected++ % 9);
+			}
+		}
+		assertEquals(pool.size(), next - expected);
+		for (int i = 0; i < pool.size(); i ++) {
+			assertEquals(pool.get(i), (expected + i) % 9);
+		}
+	}
+
+	@Test
+	public void testBulkAdd() {
+		PackedBeanPool pool = new PackedBeanPool(10, null, 16);
+		pool.add(3, 20);
+		pool.add(Bean.LUCK_STATE, 5);
+		assertEquals(pool.size(), 25);
+		assertEquals(pool.get(19), 3);
+		assertEquals(pool.get(20), Bean.LUCK_STATE);
+		assertEquals(pool.get(24), Bean.LUCK_STATE);
+	}
+
+	@Test
+	public void testWideStates() {
+		PackedBeanPool shorts = new PackedBeanPool(1000, null, 64);
+		PackedBeanPool ints = new PackedBeanPool(100000, null, 64);
+		for (int s = -1; s < 999; s ++) {
+			shorts.add(s);
+			ints.add(s * 100);
+		}
+		for (int s = -1; s < 999; s ++) {
+			assertEquals(shorts.poll(), s);
+			assertEquals(ints.poll(), s * 100);
+		}
+	}
+
+	@Test
+	public void testClearKeepsWorking() {
+		PackedBeanPool pool = new PackedBeanPool(10, null, 8);
+		pool.add(5, 30);
+		pool.poll();
+		pool.clear();
+		assertEquals(pool.size(), 0);
+		pool.add(7);
+		assertEquals(pool.poll(), 7);
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void testPollEmptyThrows() {
+		new PackedBeanPool(10, null, 8).poll();
+	}
+
+	@Test
+	public void testCopyToAndAddFromAcrossSegments() {
+		PackedBeanPool pool = new PackedBeanPool(1000, null, 8);
+		for (int i = 0; i < 30; i ++) {
+			pool.add(i * 7 - 1);
+		}
+		pool.poll();
+		ByteBuffer buf = ByteBuffer.allocate(2 * 25);
+		assertEquals(pool.copyTo(2, 40, buf), 25);
+		assertEquals(pool.size(), 29);
+		buf.flip();
+		PackedBeanPool copy = new PackedBeanPool(1000, null, 6);
+		copy.addFrom(buf, 25);
+		assertEquals(copy.size(), 25);
+		for (int i = 0; i < 25; i ++) {
+			assertEquals(copy.poll(), (i + 3) * 7 - 1);
+		}
+	}
+
+	@Test
+	public void testMappedPoolDeletesFileOnClose() throws IOException {
+		Path file = Files.createTempFile("beans", ".pool");
+		PackedBeanPool pool = PackedBeanPool.mapped(10, file);
+		pool.add(4, 1000);
+		pool.add(Bean.LUCK_STATE);
+		assertEquals(pool.size(), 1001);
+		assertEquals(pool.get(999), 4);
+		assertEquals(pool.get(1000), Bean.LUCK_STATE);
+		pool.close();
+		assertFalse(Files.exists(file));
+	}
+}
@@ -0,0 +1,107 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ParallelBeanCounter: Runs one large experiment on several cores. The beans
+ * are split into shards, each shard runs on its own BeanCounterLogic (or
+ * SampledBeanCounter) with its own generator, and the slot counts of all the
+ * shards are added up at the end.
+ *
+ * <p>The shard generators are split off the given generator before any shard
+ * starts, so the result only depends on the seed and the shard count, not on
+ * how the threads get scheduled.</p>
+ */
+public class ParallelBeanCounter {
+	// Beans are created and dropped in chunks so a shard never holds all its beans
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	private int slotCount;
+	private int shardCount;
+	private SplitMixRandom rand;
+
+	/**
+	 * Constructor - creates a runner for machines with the given number of slots.
+	 *
+	 * @param slotCount  the number of slots in the machine
+	 * @param shardCount the number of shards to split the beans into
+	 * @param rand       the generator the shard generators are split from
+	 */
+	ParallelBeanCounter(int slotCount, int shardCount, SplitMixRandom rand) {
+		this.slotCount = slotCount;
+		this.shardCount = shardCount;
+		this.rand = rand;
+	}
+
+	/**
+	 * Runs the experiment and returns the merged slot counts.
+	 *
+	 * @param beanCount the total number of beans
+	 * @param luck      whether the beans are in luck mode (or skill mode)
+	 * @param sampled   whether luck mode shards draw their counts statistically
+	 * @return the number of beans in each slot
+	 */
+	public int[] run(int beanCount, boolean luck, boolean sampled) {
+		List<Callable<int[]>> shards = new ArrayList<Callable<int[]>>();
+		for (int i = 0; i < shardCount; i++) {
+			int shardBeans = beanCount / shardCount + (i < beanCount % shardCount ? 1 : 0);
+			SplitMixRandom shardRand = rand.split();
+			shards.add(() -> runShard(slotCount, shardBeans, luck, sampled, shardRand));
+		}
+
+		int threads = Math.min(shardCount, Runtime.getRuntime().availableProcessors());
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		int[] slots = new int[slotCount];
+		try {
+			for (Future<int[]> f : executor.invokeAll(shards)) {
+				int[] shardSlots = f.get();
+				for (int i = 0; i < slotCount; i++) {
+					slots[i] += shardSlots[i];
+				}
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while running shards", ie);
+		} catch (ExecutionException ee) {
+			throw new IllegalStateException("Shard failed", ee.getCause());
+		} finally {
+			executor.shutdown();
+		}
+		return slots;
+	}
+
+	/**
+	 * Runs a single shard to completion on the calling thread.
+	 *
+	 * @param slotCount the number of slots in the machine
+	 * @param beanCount the number of beans in the shard
+	 * @param luck      whether the beans are in luck mode (or skill mode)
+	 * @param sampled   whether luck mode counts are drawn statistically
+	 * @param shardRand the generator for this shard only
+	 * @return the number of beans in each slot for this shard
+	 */
+	static int[] runShard(int slotCount, int beanCount, boolean luck, boolean sampled,
+			SplitMixRandom shardRand) {
+		if (luck && sampled) {
+			return new SampledBeanCounter(slotCount, shardRand).sample(beanCount);
+		}
+		BeanCounterLogic logic = new BeanCounterLogic(slotCount, shardRand);
+		int[] slots = new int[slotCount];
+		for (int done = 0; done < beanCount; done += CHUNK_SIZE) {
+			Bean[] beans = new Bean[Math.min(CHUNK_SIZE, beanCount - done)];
+			for (int i = 0; i < beans.length; i++) {
+				beans[i] = new Bean(luck, shardRand, slotCount);
+			}
+			logic.reset(beans);
+			logic.runToCompletion();
+			for (int i = 0; i < slotCount; i++) {
+				slots[i] += logic.getSlotBeanCount(i);
+			}
+		}
+		return slots;
+	}
+}
@@ -0,0 +1,39 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ParallelBeanCounterTest {
+
+	private static int total(int[] slots) {
+		int t = 0;
+		for (int count : slots) {
+			t += count;
+		}
+		return t;
+	}
+
+	@Test
+	public void testRunCountsAllBeans() {
+		ParallelBeanCounter p = new ParallelBeanCounter(10, 3, new SplitMixRandom(1));
+		assertEquals(total(p.run(100001, true, false)), 100001);
+	}
+
+	@Test
+	public void testRunSameSeedSameResult() {
+		int[] first = new ParallelBeanCounter(10, 4, new SplitMixRandom(5)).run(50000, true, false);
+		int[] second = new ParallelBeanCounter(10, 4, new SplitMixRandom(5)).run(50000, true, false);
+		assertArrayEquals(first, second);
+	}
+
+	@Test
+	public void testRunSampled() {
+		ParallelBeanCounter p = new ParallelBeanCounter(10, 4, new SplitMixRandom(1));
+		assertEquals(total(p.run(1000000000, true, true)), 1000000000);
+	}
+
+	@Test
+	public void testRunFewerBeansThanShards() {
+		ParallelBeanCounter p = new ParallelBeanCounter(4, 8, new SplitMixRandom(1));
+		assertEquals(total(p.run(3, false, false)), 3);
+	}
+}
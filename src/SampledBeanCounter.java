@@ -0,0 +1,159 @@
+import java.util.Random;
+
+/**
+ * SampledBeanCounter: A statistical engine for luck mode experiments. Instead
+ * of dropping beans one by one through the pegs, it draws the final slot counts
+ * directly from the distribution the machine produces.
+ *
+ * <p>A luck bean goes through (slotCount - 1) pegs with a 50/50 chance at each,
+ * so it lands in slot k with the binomial probability C(slotCount - 1, k) / 2^(slotCount - 1).
+ * The slot counts for N beans are then a multinomial sample over those
+ * probabilities. The multinomial is drawn one slot at a time: the number of
+ * beans in slot k is binomial over the beans not yet placed, with the
+ * probability of slot k relative to the slots that are left. That takes one
+ * binomial draw per slot regardless of the number of beans.</p>
+ */
+public class SampledBeanCounter {
+	private static final int LOG_FACTORIAL_TABLE_SIZE = 64;
+	private static final double[] LOG_FACTORIAL = new double[LOG_FACTORIAL_TABLE_SIZE];
+	private static final double HALF_LOG_TWO_PI = 0.5 * Math.log(2 * Math.PI);
+
+	static {
+		for (int i = 1; i < LOG_FACTORIAL_TABLE_SIZE; i ++) {
+			LOG_FACTORIAL[i] = LOG_FACTORIAL[i - 1] + Math.log(i);
+		}
+	}
+
+	private Random rand;
+	private double[] conditionalProbs;	// Probability of slot k given the bean is in slot k or above
+
+	/**
+	 * Constructor - precomputes the slot probabilities for the machine.
+	 *
+	 * @param slotCount the number of slots in the machine
+	 * @param rand      the random number generator
+	 */
+	SampledBeanCounter(int slotCount, Random rand) {
+		this.rand = rand;
+		double[] probs = slotProbabilities(slotCount);
+		// Sum the tails from the far end, where the probabilities are tiny, to
+		// avoid losing them to rounding.
+		conditionalProbs = new double[slotCount];
+		double tail = 0.0;
+		for (int k = slotCount - 1; k >= 0; k --) {
+			tail += probs[k];
+			conditionalProbs[k] = tail > 0.0 ? Math.min(1.0, probs[k] / tail) : 1.0;
+		}
+	}
+
+	/**
+	 * Calculates the probability of a luck bean landing in each slot, which is
+	 * binomial over the (slotCount - 1) pegs it goes through.
+	 *
+	 * @param slotCount the number of slots in the machine
+	 * @return the probability of landing in each slot
+	 */
+	static double[] slotProbabilities(int slotCount) {
+		int rows = slotCount - 1;
+		double[] probs = new double[slotCount];
+		for (int k = 0; k < slotCount; k ++) {
+			probs[k] = Math.exp(logFactorial(rows) - logFactorial(k) - logFactorial(rows - k)
+					- rows * Math.log(2));
+		}
+		return probs;
+	}
+
+	/**
+	 * Draws the slot bean counts for an experiment with the given number of beans.
+	 *
+	 * @param beanCount the number of beans dropped into the machine
+	 * @return the number of beans in each slot
+	 */
+	public int[] sample(int beanCount) {
+		int[] counts = new int[conditionalProbs.length];
+		long remaining = beanCount;
+		for (int k = 0; k < counts.length && remaining > 0; k ++) {
+			long n = binomial(remaining, conditionalProbs[k]);
+			counts[k] = (int) n;
+			remaining -= n;
+		}
+		return counts;
+	}
+
+	/**
+	 * Draws from the binomial distribution with n trials and success probability
+	 * p. Small means use inversion and large means use the BTRS transformed
+	 * rejection method by Hormann, which takes constant expected time.
+	 *
+	 * @param n the number of trials
+	 * @param p the success probability
+	 * @return the number of successes
+	 */
+	long binomial(long n, double p) {
+		if (p >= 1.0) {
+			return n;
+		}
+		if (p <= 0.0 || n == 0) {
+			return 0;
+		}
+		if (p > 0.5) {
+			return n - binomial(n, 1.0 - p);
+		}
+		double q = 1.0 - p;
+		if (n * p < 10) {
+			double s = p / q;
+			double a = (n + 1) * s;
+			double r = Math.pow(q, n);
+			double u = rand.nextDouble();
+			long x = 0;
+			while (u > r && x < n) {
+				u -= r;
+				x++;
+				r *= a / x - s;
+			}
+			return x;
+		}
+		double spq = Math.sqrt(n * p * q);
+		double b = 1.15 + 2.53 * spq;
+		double a = -0.0873 + 0.0248 * b + 0.01 * p;
+		double c = n * p + 0.5;
+		double vr = 0.92 - 4.2 / b;
+		double alpha = (2.83 + 5.1 / b) * spq;
+		double lpq = Math.log(p / q);
+		long m = (long) Math.floor((n + 1) * p);
+		double h = logFactorial(m) + logFactorial(n - m);
+		while (true) {
+			double u = rand.nextDouble() - 0.5;
+			double v = rand.nextDouble();
+			double us = 0.5 - Math.abs(u);
+			long k = (long) Math.floor((2 * a / us + b) * u + c);
+			if (k < 0 || k > n) {
+				continue;
+			}
+			if (us >= 0.07 && v <= vr) {
+				return k;
+			}
+			v = Math.log(v * alpha / (a / (us * us) + b));
+			if (v <= h - logFactorial(k) - logFactorial(n - k) + (k - m) * lpq) {
+				return k;
+			}
+		}
+	}
+
+	/**
+	 * Calculates log(k!), using a table for small k and Stirling's series for
+	 * large k.
+	 *
+	 * @param k a non-negative integer
+	 * @return the natural log of k factorial
+	 */
+	static double logFactorial(long k) {
+		if (k < LOG_FACTORIAL_TABLE_SIZE) {
+			return LOG_FACTORIAL[(int) k];
+		}
+		double x = k;
+		double x2 = x * x;
+		return (x + 0.5) * Math.log(x) - x + HALF_LOG_TWO_PI
+				+ (1.0 / 12 - (1.0 / 360 - 1.0 / (1260 * x2)) / x2) / x;
+	}
+}
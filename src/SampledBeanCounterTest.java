@@ -0,0 +1,66 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class SampledBeanCounterTest {
+
+	@Test
+	public void testSampleCountsAllBeans() {
+		SampledBeanCounter s = new SampledBeanCounter(10, new Random(1));
+		int[] counts = s.sample(12345);
+		int total = 0;
+		for (int count : counts) {
+			total += count;
+		}
+		assertEquals(total, 12345);
+	}
+
+	@Test
+	public void testSampleSingleSlot() {
+		SampledBeanCounter s = new SampledBeanCounter(1, new Random(1));
+		assertArrayEquals(s.sample(7), new int[]{7});
+	}
+
+	@Test
+	public void testSampleNoBeans() {
+		SampledBeanCounter s = new SampledBeanCounter(4, new Random(1));
+		assertArrayEquals(s.sample(0), new int[]{0, 0, 0, 0});
+	}
+
+	@Test
+	public void testSampleMatchesBinomialShape() {
+		SampledBeanCounter s = new SampledBeanCounter(3, new Random(1));
+		int[] counts = s.sample(1000000);
+		assertEquals(counts[0] / 1000000.0, 0.25, 0.005);
+		assertEquals(counts[1] / 1000000.0, 0.5, 0.005);
+		assertEquals(counts[2] / 1000000.0, 0.25, 0.005);
+	}
+
+	@Test
+	public void testBinomialEdgeProbabilities() {
+		SampledBeanCounter s = new SampledBeanCounter(2, new Random(1));
+		assertEquals(s.binomial(100, 0.0), 0);
+		assertEquals(s.binomial(100, 1.0), 100);
+	}
+
+	@Test
+	public void testBinomialLargeMean() {
+		SampledBeanCounter s = new SampledBeanCounter(2, new Random(1));
+		long total = 0;
+		for (int i = 0; i < 1000; i ++) {
+			total += s.binomial(1000000, 0.3);
+		}
+		assertEquals(total / 1000.0, 300000.0, 100.0);
+	}
+
+	@Test
+	public void testLogFactorialStirlingMatchesTable() {
+		double exact = 0.0;
+		for (int i = 1; i <= 100; i ++) {
+			exact += Math.log(i);
+		}
+		assertEquals(SampledBeanCounter.logFactorial(100), exact, 1e-9);
+	}
+}
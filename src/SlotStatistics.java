@@ -0,0 +1,242 @@
+import java.util.Arrays;
+
+/**
+ * SlotStatistics: The distribution of the slots the beans landed in, kept up to
+ * date bean by bean through the BeanCounterListener returned by updater(). The
+ * mean, standard deviation, skewness, kurtosis and median of the landing slot
+ * can all be read in constant time, however many beans there are.
+ *
+ * <p>The statistics are not a listener themselves, and the methods that update
+ * them are package-private. Statistics handed out by the machine or by a
+ * BeanCounterSnapshot therefore only offer getters to code outside the
+ * package.</p>
+ *
+ * <p>Welford's method cannot take beans back out, which upperHalf() and
+ * lowerHalf() need, so the moments come from running sums of the powers of each
+ * bean's distance to the middle slot instead. Centering keeps the sums small
+ * enough that the first two stay exact in longs and the others lose no useful
+ * precision in doubles. The median is a pointer into a copy of the slot counts
+ * that moves by about one slot per bean.</p>
+ */
+public class SlotStatistics {
+	private final int center;			// Slot the distances are measured from
+	private final int[] counts;			// Number of beans in each slot
+	private long n;						// Number of beans in all the slots
+	private long sum1;					// Sum of distances to center
+	private long sum2;					// Sum of squared distances
+	private double sum3;				// Sum of cubed distances
+	private double sum4;				// Sum of distances to the fourth power
+	private int median;					// Slot of the lower median bean
+	private long belowMedian;			// Number of beans in the slots left of median
+
+	/**
+	 * Constructor - creates empty statistics for a machine.
+	 *
+	 * @param slotCount the number of slots in the machine
+	 */
+	SlotStatistics(int slotCount) {
+		center = (slotCount - 1) / 2;
+		counts = new int[slotCount];
+	}
+
+	/**
+	 * Constructor - copies other statistics, used for snapshots.
+	 *
+	 * @param other the statistics to copy
+	 */
+	SlotStatistics(SlotStatistics other) {
+		center = other.center;
+		counts = other.counts.clone();
+		n = other.n;
+		sum1 = other.sum1;
+		sum2 = other.sum2;
+		sum3 = other.sum3;
+		sum4 = other.sum4;
+		median = other.median;
+		belowMedian = other.belowMedian;
+	}
+
+	/**
+	 * Returns a listener that keeps these statistics up to date with the machine
+	 * it is registered with.
+	 *
+	 * @return the listener
+	 */
+	BeanCounterListener updater() {
+		return new BeanCounterListener() {
+			@Override
+			public void beanLanded(int slot) {
+				SlotStatistics.this.beanLanded(slot);
+			}
+
+			@Override
+			public void beansRemoved(int slot, int count) {
+				SlotStatistics.this.beansRemoved(slot, count);
+			}
+
+			@Override
+			public void machineReset() {
+				SlotStatistics.this.machineReset();
+			}
+
+			@Override
+			public void machineRepeated() {
+				SlotStatistics.this.machineReset();
+			}
+
+			@Override
+			public void machineRestored(int[] slots) {
+				SlotStatistics.this.machineRestored(slots);
+			}
+		};
+	}
+
+	void beanLanded(int slot) {
+		add(slot, 1);
+	}
+
+	void beansRemoved(int slot, int count) {
+		add(slot, -count);
+	}
+
+	/**
+	 * Empties the statistics, as when the machine is reset or repeated.
+	 */
+	void machineReset() {
+		clear();
+	}
+
+	/**
+	 * Sets the statistics to the given slot counts, as when the machine is
+	 * restored.
+	 *
+	 * @param slots the number of beans in each slot
+	 */
+	void machineRestored(int[] slots) {
+		clear();
+		for (int i = 0; i < slots.length; i++) {
+			if (slots[i] != 0) {
+				add(i, slots[i]);
+			}
+		}
+	}
+
+	/**
+	 * Adds beans to a slot, or takes them out if count is negative.
+	 *
+	 * @param slot  the index of the slot
+	 * @param count the number of beans
+	 */
+	private void add(int slot, int count) {
+		long d = slot - center;
+		counts[slot] += count;
+		n += count;
+		sum1 += count * d;
+		sum2 += count * d * d;
+		sum3 += (double) count * d * d * d;
+		sum4 += (double) count * d * d * d * d;
+		if (slot < median) {
+			belowMedian += count;
+		}
+		moveMedian();
+	}
+
+	/**
+	 * Moves the median pointer to the slot holding bean number (n + 1) / 2,
+	 * counting from the left.
+	 */
+	private void moveMedian() {
+		long target = (n + 1) / 2;
+		while (median > 0 && belowMedian >= target) {
+			median--;
+			belowMedian -= counts[median];
+		}
+		while (median < counts.length - 1 && belowMedian + counts[median] < target) {
+			belowMedian += counts[median];
+			median++;
+		}
+	}
+
+	private void clear() {
+		Arrays.fill(counts, 0);
+		n = 0;
+		sum1 = 0;
+		sum2 = 0;
+		sum3 = 0.0;
+		sum4 = 0.0;
+		median = 0;
+		belowMedian = 0;
+	}
+
+	public long getCount() {
+		return n;
+	}
+
+	/**
+	 * Returns the average slot index the beans landed in.
+	 *
+	 * @return the mean slot, or 0 if there are no beans
+	 */
+	public double getMean() {
+		return n > 0 ? center + (double) sum1 / n : 0.0;
+	}
+
+	/**
+	 * Returns the (population) variance of the slot index the beans landed in.
+	 *
+	 * @return the variance, or 0 if there are no beans
+	 */
+	public double getVariance() {
+		if (n <= 0) {
+			return 0.0;
+		}
+		double mean = (double) sum1 / n;
+		return Math.max(0.0, (double) sum2 / n - mean * mean);
+	}
+
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * Returns the skewness of the slot index the beans landed in, which is 0 for
+	 * a symmetric pile.
+	 *
+	 * @return the skewness, or 0 if all the beans are in one slot
+	 */
+	public double getSkewness() {
+		double variance = getVariance();
+		if (variance == 0.0) {
+			return 0.0;
+		}
+		double mean = (double) sum1 / n;
+		double m3 = sum3 / n - 3 * mean * sum2 / n + 2 * mean * mean * mean;
+		return m3 / (variance * Math.sqrt(variance));
+	}
+
+	/**
+	 * Returns the excess kurtosis of the slot index the beans landed in, which is
+	 * 0 for a normal distribution.
+	 *
+	 * @return the excess kurtosis, or 0 if all the beans are in one slot
+	 */
+	public double getKurtosis() {
+		double variance = getVariance();
+		if (variance == 0.0) {
+			return 0.0;
+		}
+		double mean = (double) sum1 / n;
+		double m4 = sum4 / n - 4 * mean * sum3 / n + 6 * mean * mean * sum2 / n
+				- 3 * mean * mean * mean * mean;
+		return m4 / (variance * variance) - 3.0;
+	}
+
+	/**
+	 * Returns the slot of the lower median bean.
+	 *
+	 * @return the median slot, or 0 if there are no beans
+	 */
+	public int getMedian() {
+		return median;
+	}
+}
@@ -0,0 +1,129 @@
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SlotStatisticsTest {
+
+	/**
+	 * Calculates the moments of a histogram directly, to compare against.
+	 * Returns the mean, variance, skewness and excess kurtosis.
+	 */
+	private static double[] moments(int[] counts) {
+		double n = 0.0;
+		double mean = 0.0;
+		for (int i = 0; i < counts.length; i ++) {
+			n += counts[i];
+			mean += (double) i * counts[i];
+		}
+		mean /= n;
+		double m2 = 0.0;
+		double m3 = 0.0;
+		double m4 = 0.0;
+		for (int i = 0; i < counts.length; i ++) {
+			double d = i - mean;
+			m2 += counts[i] * d * d;
+			m3 += counts[i] * d * d * d;
+			m4 += counts[i] * d * d * d * d;
+		}
+		m2 /= n;
+		m3 /= n;
+		m4 /= n;
+		return new double[]{mean, m2, m3 / Math.pow(m2, 1.5), m4 / (m2 * m2) - 3.0};
+	}
+
+	private static void assertMatches(SlotStatistics stats, int[] counts) {
+		double[] expected = moments(counts);
+		assertEquals(stats.getMean(), expected[0], 1e-9);
+		assertEquals(stats.getVariance(), expected[1], 1e-9);
+		assertEquals(stats.getSkewness(), expected[2], 1e-9);
+		assertEquals(stats.getKurtosis(), expected[3], 1e-9);
+	}
+
+	@Test
+	public void testEmptyIsZero() {
+		SlotStatistics stats = new SlotStatistics(10);
+		assertEquals(stats.getCount(), 0);
+		assertEquals(stats.getMean(), 0.0, 0);
+		assertEquals(stats.getStandardDeviation(), 0.0, 0);
+		assertEquals(stats.getSkewness(), 0.0, 0);
+		assertEquals(stats.getMedian(), 0);
+	}
+
+	@Test
+	public void testMomentsMatchDirectCalculation() {
+		SlotStatistics stats = new SlotStatistics(10);
+		int[] counts = {0, 1, 3, 9, 2, 0, 0, 7, 1, 4};
+		for (int i = 0; i < counts.length; i ++) {
+			for (int j = 0; j < counts[i]; j ++) {
+				stats.beanLanded(i);
+			}
+		}
+		assertEquals(stats.getCount(), 27);
+		assertMatches(stats, counts);
+	}
+
+	@Test
+	public void testRemovalMatchesDirectCalculation() {
+		SlotStatistics stats = new SlotStatistics(6);
+		int[] counts = {2, 5, 8, 4, 1, 3};
+		for (int i = 0; i < counts.length; i ++) {
+			for (int j = 0; j < counts[i]; j ++) {
+				stats.beanLanded(i);
+			}
+		}
+		stats.beansRemoved(0, 2);
+		stats.beansRemoved(2, 6);
+		counts[0] = 0;
+		counts[2] = 2;
+		assertMatches(stats, counts);
+		assertEquals(stats.getMedian(), 3);
+	}
+
+	@Test
+	public void testMedianFollowsBeans() {
+		SlotStatistics stats = new SlotStatistics(5);
+		stats.beanLanded(4);
+		assertEquals(stats.getMedian(), 4);
+		stats.beanLanded(0);
+		assertEquals(stats.getMedian(), 0);
+		stats.beanLanded(3);
+		assertEquals(stats.getMedian(), 3);
+		stats.beansRemoved(3, 1);
+		stats.beanLanded(1);
+		stats.beanLanded(1);
+		assertEquals(stats.getMedian(), 1);
+	}
+
+	@Test
+	public void testMedianMatchesSortedBeans() {
+		SlotStatistics stats = new SlotStatistics(20);
+		Random rand = new Random(3);
+		int[] counts = new int[20];
+		for (int i = 0; i < 501; i ++) {
+			int slot = rand.nextInt(20);
+			counts[slot]++;
+			stats.beanLanded(slot);
+		}
+		int seen = 0;
+		int median = 0;
+		while (seen + counts[median] < 251) {
+			seen += counts[median];
+			median++;
+		}
+		assertEquals(stats.getMedian(), median);
+	}
+
+	@Test
+	public void testResetClears() {
+		SlotStatistics stats = new SlotStatistics(5);
+		stats.beanLanded(3);
+		stats.beanLanded(4);
+		stats.machineReset();
+		assertEquals(stats.getCount(), 0);
+		assertEquals(stats.getMedian(), 0);
+		stats.beanLanded(2);
+		assertEquals(stats.getMean(), 2.0, 0);
+	}
+}
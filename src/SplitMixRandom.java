@@ -0,0 +1,190 @@
+import java.util.Random;
+
+/**
+ * SplitMixRandom: A fast, seedable random number generator based on the
+ * SplitMix64 algorithm (the one behind java.util.SplittableRandom). It extends
+ * java.util.Random so it can be passed wherever a Random is expected, such as
+ * the Bean constructor, but it keeps its state in a plain long instead of an
+ * AtomicLong. That makes it cheap to share one instance among all the beans of
+ * a machine. It is not thread-safe; give each thread its own instance through
+ * split(). As in SplittableRandom, a split generator gets both a new seed and
+ * its own odd gamma (the step its state moves by), so the sequences of sibling
+ * generators are not just shifted copies of one another.
+ *
+ * <p>nextGaussian() makes two values at a time and hands out the second on the
+ * next call. Random keeps that value where setSeed() cannot clear it, so this
+ * class keeps its own, which setSeed() clears and checkpoints save.</p>
+ */
+public class SplitMixRandom extends Random {
+	private static final long serialVersionUID = 1L;
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	private long state;
+	private long gamma = GOLDEN_GAMMA;	// Odd step added to state for every value
+	private double cachedGaussian;		// Second value of the last pair from nextGaussian()
+	private boolean hasCachedGaussian;
+
+	/**
+	 * Constructor - creates a generator with a seed that differs on each run.
+	 */
+	public SplitMixRandom() {
+		this(mix(System.nanoTime() ^ System.identityHashCode(new Object())));
+	}
+
+	/**
+	 * Constructor - creates a generator that always produces the same sequence
+	 * for the same seed.
+	 *
+	 * @param seed the initial seed
+	 */
+	public SplitMixRandom(long seed) {
+		super(seed);
+		this.state = seed;
+	}
+
+	/**
+	 * Creates a new generator whose sequence is independent of this one. The new
+	 * generator is seeded from this generator, so splitting is also reproducible.
+	 *
+	 * @return the new generator
+	 */
+	public SplitMixRandom split() {
+		SplitMixRandom child = new SplitMixRandom(nextLong());
+		state += gamma;
+		child.gamma = mixGamma(state);
+		return child;
+	}
+
+	@Override
+	public void setSeed(long seed) {
+		this.state = seed;
+		this.hasCachedGaussian = false;
+	}
+
+	/**
+	 * Returns the internal state. Passing it to setSeed() later continues the
+	 * sequence from the same point, which is how checkpoints save the generator,
+	 * together with the cached Gaussian, if any.
+	 *
+	 * @return the state
+	 */
+	public long getState() {
+		return state;
+	}
+
+	/**
+	 * Returns the step the state moves by for every value, which differs between
+	 * generators made by split(). Checkpoints save it with the state.
+	 *
+	 * @return the gamma, always odd
+	 */
+	public long getGamma() {
+		return gamma;
+	}
+
+	/**
+	 * Sets the step the state moves by, when restoring a generator saved by a
+	 * checkpoint.
+	 *
+	 * @param gamma the gamma returned by getGamma()
+	 */
+	public void setGamma(long gamma) {
+		this.gamma = gamma | 1L;
+	}
+
+	public boolean hasCachedGaussian() {
+		return hasCachedGaussian;
+	}
+
+	/**
+	 * Returns the value the next call to nextGaussian() hands out without drawing.
+	 * Only meaningful while hasCachedGaussian() is true.
+	 *
+	 * @return the cached value
+	 */
+	public double getCachedGaussian() {
+		return cachedGaussian;
+	}
+
+	/**
+	 * Sets the value the next call to nextGaussian() hands out, after setSeed()
+	 * when restoring a generator.
+	 *
+	 * @param value the value
+	 */
+	public void setCachedGaussian(double value) {
+		this.cachedGaussian = value;
+		this.hasCachedGaussian = true;
+	}
+
+	/**
+	 * Draws a normally distributed value with the polar method, as Random does,
+	 * keeping the second value of each pair for the next call.
+	 *
+	 * @return the value
+	 */
+	@Override
+	public double nextGaussian() {
+		if (hasCachedGaussian) {
+			hasCachedGaussian = false;
+			return cachedGaussian;
+		}
+		double v1;
+		double v2;
+		double s;
+		do {
+			v1 = 2 * nextDouble() - 1;
+			v2 = 2 * nextDouble() - 1;
+			s = v1 * v1 + v2 * v2;
+		} while (s >= 1 || s == 0);
+		double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+		cachedGaussian = v2 * multiplier;
+		hasCachedGaussian = true;
+		return v1 * multiplier;
+	}
+
+	@Override
+	protected int next(int bits) {
+		return (int) (nextLong() >>> (Long.SIZE - bits));
+	}
+
+	@Override
+	public long nextLong() {
+		state += gamma;
+		return mix(state);
+	}
+
+	@Override
+	public int nextInt() {
+		return (int) (nextLong() >>> Integer.SIZE);
+	}
+
+	@Override
+	public boolean nextBoolean() {
+		return nextLong() < 0;
+	}
+
+	@Override
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * Derives the gamma of a split generator the way SplittableRandom does: a
+	 * different mix of the seed, forced odd, with enough bit transitions that
+	 * the state does not move in a regular pattern.
+	 */
+	private static long mixGamma(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		z = (z ^ (z >>> 33)) | 1L;
+		int n = Long.bitCount(z ^ (z >>> 1));
+		return n < 24 ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,93 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class SplitMixRandomTest {
+
+	@Test
+	public void testSameSeedSameSequence() {
+		SplitMixRandom a = new SplitMixRandom(7);
+		SplitMixRandom b = new SplitMixRandom(7);
+		for (int i = 0; i < 100; i ++) {
+			assertEquals(a.nextLong(), b.nextLong());
+		}
+	}
+
+	@Test
+	public void testSetSeedRestartsSequence() {
+		SplitMixRandom a = new SplitMixRandom(7);
+		long first = a.nextLong();
+		a.setSeed(7);
+		assertEquals(a.nextLong(), first);
+	}
+
+	@Test
+	public void testSplitIsReproducible() {
+		SplitMixRandom a = new SplitMixRandom(7).split();
+		SplitMixRandom b = new SplitMixRandom(7).split();
+		assertEquals(a.nextLong(), b.nextLong());
+	}
+
+	@Test
+	public void testSplitGetsItsOwnGamma() {
+		SplitMixRandom parent = new SplitMixRandom(7);
+		SplitMixRandom a = parent.split();
+		SplitMixRandom b = parent.split();
+		assertNotEquals(a.getGamma(), parent.getGamma());
+		assertNotEquals(a.getGamma(), b.getGamma());
+		assertEquals(a.getGamma() & 1L, 1L);
+		assertEquals(new SplitMixRandom(7).split().getGamma(), a.getGamma());
+	}
+
+	@Test
+	public void testSetGammaContinuesSplitSequence() {
+		SplitMixRandom a = new SplitMixRandom(7).split();
+		a.nextLong();
+		SplitMixRandom b = new SplitMixRandom(0);
+		b.setSeed(a.getState());
+		b.setGamma(a.getGamma());
+		for (int i = 0; i < 10; i ++) {
+			assertEquals(a.nextLong(), b.nextLong());
+		}
+	}
+
+	@Test
+	public void testNextIntBoundInRange() {
+		SplitMixRandom a = new SplitMixRandom(7);
+		int[] seen = new int[2];
+		for (int i = 0; i < 1000; i ++) {
+			seen[a.nextInt(2)]++;
+		}
+		assertTrue(seen[0] > 400 && seen[1] > 400);
+	}
+
+	@Test
+	public void testNextDoubleInRange() {
+		SplitMixRandom a = new SplitMixRandom(7);
+		for (int i = 0; i < 1000; i ++) {
+			double d = a.nextDouble();
+			assertTrue(d >= 0.0 && d < 1.0);
+		}
+	}
+
+	@Test
+	public void testSetSeedClearsCachedGaussian() {
+		SplitMixRandom a = new SplitMixRandom(7);
+		double first = a.nextGaussian();
+		a.setSeed(7);
+		assertEquals(a.nextGaussian(), first, 0.0);
+	}
+
+	@Test
+	public void testCachedGaussianCarriesOver() {
+		SplitMixRandom a = new SplitMixRandom(7);
+		a.nextGaussian();
+		assertTrue(a.hasCachedGaussian());
+		SplitMixRandom b = new SplitMixRandom(0);
+		b.setSeed(a.getState());
+		b.setCachedGaussian(a.getCachedGaussian());
+		for (int i = 0; i < 10; i ++) {
+			assertEquals(a.nextGaussian(), b.nextGaussian(), 0.0);
+		}
+	}
+}
@@ -18,6 +18,14 @@ public class TestRunner {
 		// ADD ANY CLASSES YOU WISH TO TEST HERE
 		classesToTest.add(BeanCounterLogicTest.class);
 		classesToTest.add(BeanTest.class);
+		classesToTest.add(SampledBeanCounterTest.class);
+		classesToTest.add(SplitMixRandomTest.class);
+		classesToTest.add(ParallelBeanCounterTest.class);
+		classesToTest.add(TrialStatisticsTest.class);
+		classesToTest.add(BeanQueueTest.class);
+		classesToTest.add(SlotStatisticsTest.class);
+		classesToTest.add(BeanCounterCheckpointTest.class);
+		classesToTest.add(PackedBeanPoolTest.class);
 
 		// For all test classes added, loop through and use JUnit
 		// to run them.
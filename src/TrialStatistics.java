@@ -0,0 +1,248 @@
+/**
+ * TrialStatistics: Aggregates the slot bean counts of many independent trials
+ * without keeping the trials around. For each slot it keeps a running mean and
+ * sum of squared differences (Welford's method), the minimum and the maximum,
+ * plus the pooled count of beans over all trials for a chi-square test.
+ * Statistics gathered on different threads can be combined with merge().
+ */
+public class TrialStatistics {
+	// Fewest beans a bin of the chi-square test is expected to hold
+	private static final double MIN_EXPECTED = 5.0;
+
+	private long trials;
+	private double[] mean;
+	private double[] m2;			// Sum of squared differences from the mean
+	private int[] min;
+	private int[] max;
+	private long[] pooled;		// Total beans in each slot over all trials
+
+	/**
+	 * Constructor - creates empty statistics for a machine.
+	 *
+	 * @param slotCount the number of slots in the machine
+	 */
+	TrialStatistics(int slotCount) {
+		mean = new double[slotCount];
+		m2 = new double[slotCount];
+		min = new int[slotCount];
+		max = new int[slotCount];
+		pooled = new long[slotCount];
+	}
+
+	/**
+	 * Adds the slot bean counts of one trial.
+	 *
+	 * @param slots the number of beans in each slot
+	 */
+	public void add(int[] slots) {
+		trials++;
+		for (int i = 0; i < mean.length; i++) {
+			double delta = slots[i] - mean[i];
+			mean[i] += delta / trials;
+			m2[i] += delta * (slots[i] - mean[i]);
+			if (trials == 1 || slots[i] < min[i]) {
+				min[i] = slots[i];
+			}
+			if (trials == 1 || slots[i] > max[i]) {
+				max[i] = slots[i];
+			}
+			pooled[i] += slots[i];
+		}
+	}
+
+	/**
+	 * Folds the statistics of another set of trials into this one.
+	 *
+	 * @param other the statistics to fold in
+	 */
+	public void merge(TrialStatistics other) {
+		if (other.trials == 0) {
+			return;
+		}
+		long total = trials + other.trials;
+		for (int i = 0; i < mean.length; i++) {
+			double delta = other.mean[i] - mean[i];
+			m2[i] += other.m2[i] + delta * delta * trials * other.trials / total;
+			mean[i] += delta * other.trials / total;
+			min[i] = trials == 0 ? other.min[i] : Math.min(min[i], other.min[i]);
+			max[i] = trials == 0 ? other.max[i] : Math.max(max[i], other.max[i]);
+			pooled[i] += other.pooled[i];
+		}
+		trials = total;
+	}
+
+	public long getTrialCount() {
+		return trials;
+	}
+
+	public double getMean(int i) {
+		return mean[i];
+	}
+
+	/**
+	 * Returns the sample variance of the bean count in the ith slot.
+	 *
+	 * @param i index of slot
+	 * @return the sample variance, or 0 with fewer than two trials
+	 */
+	public double getVariance(int i) {
+		return trials > 1 ? m2[i] / (trials - 1) : 0.0;
+	}
+
+	public int getMin(int i) {
+		return min[i];
+	}
+
+	public int getMax(int i) {
+		return max[i];
+	}
+
+	/**
+	 * Calculates Pearson's chi-square statistic of the pooled slot counts against
+	 * the given slot probabilities. Adjacent slots are merged into bins until
+	 * each bin is expected to hold at least MIN_EXPECTED beans, as the test
+	 * requires; otherwise the nearly empty slots at the ends of a wide board
+	 * would swamp the statistic.
+	 *
+	 * @param probs the expected probability of a bean landing in each slot
+	 * @return the chi-square statistic
+	 */
+	public double getChiSquare(double[] probs) {
+		long total = getPooledTotal();
+		int[] ends = binEnds(probs, total);
+		double chi = 0.0;
+		int start = 0;
+		for (int end : ends) {
+			long observed = 0;
+			double expected = 0.0;
+			for (int i = start; i < end; i++) {
+				observed += pooled[i];
+				expected += total * probs[i];
+			}
+			if (expected > 0.0) {
+				double diff = observed - expected;
+				chi += diff * diff / expected;
+			}
+			start = end;
+		}
+		return chi;
+	}
+
+	/**
+	 * Returns the degrees of freedom of the chi-square test, which is one less
+	 * than the number of bins getChiSquare() merges the slots into.
+	 *
+	 * @param probs the expected probability of a bean landing in each slot
+	 * @return the degrees of freedom
+	 */
+	public int getDegreesOfFreedom(double[] probs) {
+		return binEnds(probs, getPooledTotal()).length - 1;
+	}
+
+	private long getPooledTotal() {
+		long total = 0;
+		for (long count : pooled) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * Merges adjacent slots into bins, from the left, closing a bin once it is
+	 * expected to hold MIN_EXPECTED beans. A short bin left over at the right end
+	 * is merged into the one before it.
+	 *
+	 * @param probs the expected probability of a bean landing in each slot
+	 * @param total the number of beans
+	 * @return the index one past the last slot of each bin
+	 */
+	private static int[] binEnds(double[] probs, long total) {
+		int[] ends = new int[probs.length];
+		int bins = 0;
+		double expected = 0.0;
+		for (int i = 0; i < probs.length; i++) {
+			expected += total * probs[i];
+			if (expected >= MIN_EXPECTED) {
+				ends[bins++] = i + 1;
+				expected = 0.0;
+			}
+		}
+		if (bins == 0) {
+			return new int[]{probs.length};
+		}
+		ends[bins - 1] = probs.length;
+		int[] result = new int[bins];
+		System.arraycopy(ends, 0, result, 0, bins);
+		return result;
+	}
+
+	/**
+	 * Calculates the p-value of a chi-square statistic, the probability of seeing
+	 * a value at least this large if the counts follow the expected distribution.
+	 *
+	 * @param chi the chi-square statistic
+	 * @param df  the degrees of freedom
+	 * @return the p-value
+	 */
+	public static double chiSquarePValue(double chi, int df) {
+		if (df <= 0) {
+			return 1.0;
+		}
+		return upperGammaRatio(df / 2.0, chi / 2.0);
+	}
+
+	/**
+	 * Calculates the regularized upper incomplete gamma function Q(a, x), using
+	 * the series for small x and the continued fraction for large x.
+	 */
+	private static double upperGammaRatio(double a, double x) {
+		if (x <= 0.0) {
+			return 1.0;
+		}
+		double logPrefix = a * Math.log(x) - x - logGamma(a);
+		if (x < a + 1.0) {
+			double term = 1.0 / a;
+			double sum = term;
+			for (int n = 1; n < 1000 && Math.abs(term) > Math.abs(sum) * 1e-15; n++) {
+				term *= x / (a + n);
+				sum += term;
+			}
+			return Math.max(0.0, 1.0 - sum * Math.exp(logPrefix));
+		}
+		double b = x + 1.0 - a;
+		double c = 1.0 / Double.MIN_NORMAL;
+		double d = 1.0 / b;
+		double h = d;
+		for (int n = 1; n < 1000; n++) {
+			double an = -n * (n - a);
+			b += 2.0;
+			d = an * d + b;
+			d = Math.abs(d) < Double.MIN_NORMAL ? Double.MIN_NORMAL : d;
+			c = b + an / c;
+			c = Math.abs(c) < Double.MIN_NORMAL ? Double.MIN_NORMAL : c;
+			d = 1.0 / d;
+			double delta = d * c;
+			h *= delta;
+			if (Math.abs(delta - 1.0) < 1e-15) {
+				break;
+			}
+		}
+		return Math.exp(logPrefix) * h;
+	}
+
+	/**
+	 * Calculates log(Gamma(x)) for x > 0 with the Lanczos approximation.
+	 */
+	static double logGamma(double x) {
+		double[] coefficients = {76.18009172947146, -86.50532032941677, 24.01409824083091,
+			-1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5};
+		double y = x;
+		double tmp = x + 5.5;
+		tmp -= (x + 0.5) * Math.log(tmp);
+		double series = 1.000000000190015;
+		for (double c : coefficients) {
+			series += c / ++y;
+		}
+		return -tmp + Math.log(2.5066282746310005 * series / x);
+	}
+}
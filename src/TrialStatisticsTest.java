@@ -0,0 +1,93 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TrialStatisticsTest {
+
+	@Test
+	public void testAddTracksMeanVarianceMinMax() {
+		TrialStatistics t = new TrialStatistics(2);
+		t.add(new int[]{1, 4});
+		t.add(new int[]{3, 4});
+		t.add(new int[]{5, 4});
+		assertEquals(t.getTrialCount(), 3);
+		assertEquals(t.getMean(0), 3.0, 1e-12);
+		assertEquals(t.getVariance(0), 4.0, 1e-12);
+		assertEquals(t.getVariance(1), 0.0, 1e-12);
+		assertEquals(t.getMin(0), 1);
+		assertEquals(t.getMax(0), 5);
+	}
+
+	@Test
+	public void testMergeMatchesSingleAccumulator() {
+		TrialStatistics all = new TrialStatistics(1);
+		TrialStatistics left = new TrialStatistics(1);
+		TrialStatistics right = new TrialStatistics(1);
+		int[] values = {2, 9, 4, 7, 1, 8};
+		for (int i = 0; i < values.length; i++) {
+			all.add(new int[]{values[i]});
+			(i < 2 ? left : right).add(new int[]{values[i]});
+		}
+		left.merge(right);
+		assertEquals(left.getMean(0), all.getMean(0), 1e-12);
+		assertEquals(left.getVariance(0), all.getVariance(0), 1e-12);
+		assertEquals(left.getMin(0), 1);
+		assertEquals(left.getMax(0), 9);
+	}
+
+	@Test
+	public void testMergeIntoEmpty() {
+		TrialStatistics empty = new TrialStatistics(1);
+		TrialStatistics other = new TrialStatistics(1);
+		other.add(new int[]{5});
+		empty.merge(other);
+		assertEquals(empty.getMin(0), 5);
+		assertEquals(empty.getMax(0), 5);
+	}
+
+	@Test
+	public void testChiSquareExactFit() {
+		TrialStatistics t = new TrialStatistics(3);
+		t.add(new int[]{25, 50, 25});
+		assertEquals(t.getChiSquare(new double[]{0.25, 0.5, 0.25}), 0.0, 1e-12);
+	}
+
+	@Test
+	public void testChiSquareMergesSparseTails() {
+		TrialStatistics t = new TrialStatistics(4);
+		t.add(new int[]{3, 47, 50, 0});
+		double[] probs = {0.01, 0.49, 0.49, 0.01};
+		assertEquals(t.getDegreesOfFreedom(probs), 1);
+		assertEquals(t.getChiSquare(probs), 0.0, 1e-12);
+	}
+
+	@Test
+	public void testChiSquareOnWideBoard() {
+		int slotCount = 200;
+		SplitMixRandom rand = new SplitMixRandom(11);
+		int[] slots = new int[slotCount];
+		for (int b = 0; b < 20000; b++) {
+			int rights = 0;
+			for (int peg = 0; peg < slotCount - 1; peg++) {
+				rights += rand.nextInt(2);
+			}
+			slots[rights]++;
+		}
+		TrialStatistics t = new TrialStatistics(slotCount);
+		t.add(slots);
+		double[] probs = SampledBeanCounter.slotProbabilities(slotCount);
+		int df = t.getDegreesOfFreedom(probs);
+		// Only the slots within a few standard deviations of the middle get bins
+		assertTrue(df > 10 && df < 60);
+		double p = TrialStatistics.chiSquarePValue(t.getChiSquare(probs), df);
+		assertTrue(p > 0.001);
+	}
+
+	@Test
+	public void testChiSquarePValue() {
+		// The 95th percentile of chi-square with 2 degrees of freedom is 5.991
+		assertEquals(TrialStatistics.chiSquarePValue(5.991, 2), 0.05, 1e-4);
+		// The 5th percentile of chi-square with 9 degrees of freedom is 3.325
+		assertEquals(TrialStatistics.chiSquarePValue(3.325, 9), 0.95, 1e-4);
+	}
+}